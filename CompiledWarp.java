@@ -0,0 +1,167 @@
+// A homography warp compiled for one source size and one output size
+// Every output pixel keeps its source pixel, or for bilinear and bicubic the top left of
+// its taps and the tap weights in fixed point, so warping an image is one gather pass with
+// integer arithmetic. Built once, it serves every image of that size taken through the same
+// homography, see WarpCache.
+class CompiledWarp {
+    // weights are fractions of 1 << BITS
+    static final int BITS = 12;
+    private static final int ONE = 1 << BITS;
+
+    final int srcWidth, srcHeight, outWidth, outHeight, interpolation;
+    // nearest: source pixel of every output pixel, -1 outside of the source
+    private final int[] index;
+    // bilinear and bicubic: top left tap, tapX is OUTSIDE where the output stays black
+    private final int[] tapX, tapY;
+    // fx, fy per pixel for bilinear, the 4 column then the 4 row weights for bicubic
+    private final short[] weights;
+    private static final int OUTSIDE = Integer.MIN_VALUE;
+
+    // invH maps output pixels to source pixels
+    CompiledWarp(double[] invH, int srcWidth, int srcHeight, int outWidth, int outHeight, int interpolation) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.interpolation = interpolation;
+        int length = outWidth * outHeight;
+        boolean nearest = interpolation == Warp.NEAREST;
+        index = nearest ? new int[length] : null;
+        tapX = nearest ? null : new int[length];
+        tapY = nearest ? null : new int[length];
+        weights = nearest ? null : new short[length * (interpolation == Warp.BILINEAR ? 2 : 8)];
+        TileExecutor.rows(outHeight, 0, (from, to) -> {
+            double[] w4 = new double[4];
+            for (int y = from; y < to; y++) {
+                // along the row the homogeneous coordinates only grow by the first column
+                double xh = invH[1] * y + invH[2];
+                double yh = invH[4] * y + invH[5];
+                double w = invH[7] * y + invH[8];
+                for (int x = 0; x < outWidth; x++, xh += invH[0], yh += invH[3], w += invH[6]) {
+                    int i = y * outWidth + x;
+                    double sx = xh / w, sy = yh / w;
+                    if (interpolation == Warp.NEAREST) {
+                        int srcX = (int) Math.round(sx);
+                        int srcY = (int) Math.round(sy);
+                        if (srcX >= 0 && srcX < srcWidth && srcY >= 0 && srcY < srcHeight)
+                            index[i] = srcY * srcWidth + srcX;
+                        else
+                            index[i] = -1;
+                        continue;
+                    }
+                    // the same pixels as the nearest sampling are covered
+                    if (!(sx >= -0.5 && sx < srcWidth - 0.5 && sy >= -0.5 && sy < srcHeight - 0.5)) {
+                        tapX[i] = OUTSIDE;
+                        continue;
+                    }
+                    int x0 = (int) Math.floor(sx), y0 = (int) Math.floor(sy);
+                    double fx = sx - x0, fy = sy - y0;
+                    if (interpolation == Warp.BILINEAR) {
+                        tapX[i] = x0;
+                        tapY[i] = y0;
+                        weights[2 * i] = (short) Math.round(fx * ONE);
+                        weights[2 * i + 1] = (short) Math.round(fy * ONE);
+                    } else {
+                        tapX[i] = x0 - 1;
+                        tapY[i] = y0 - 1;
+                        cubicWeights(fx, w4, weights, 8 * i);
+                        cubicWeights(fy, w4, weights, 8 * i + 4);
+                    }
+                }
+            }
+        });
+    }
+
+    // size of the tables in bytes
+    long bytes() {
+        if (index != null)
+            return 4L * index.length;
+        return 4L * tapX.length + 4L * tapY.length + 2L * weights.length;
+    }
+
+    // the 4 Catmull-Rom weights of the taps around fraction f, rounded so they add up to ONE
+    private static void cubicWeights(double f, double[] w4, short[] weights, int at) {
+        int sum = 0, largest = 0;
+        for (int k = 0; k < 4; k++) {
+            w4[k] = Warp.cubic(k - 1 - f);
+            weights[at + k] = (short) Math.round(w4[k] * ONE);
+            sum += weights[at + k];
+            if (w4[k] > w4[largest])
+                largest = k;
+        }
+        weights[at + largest] += ONE - sum;
+    }
+
+    // Warp src, which has to be srcWidth x srcHeight
+    PixelRaster apply(PixelRaster src) {
+        if (interpolation == Warp.NEAREST)
+            return src.gather(outWidth, outHeight, index);
+        boolean rgb = src.mode == PixelRaster.RGB;
+        int[] data = rgb ? src.pixels : src.grayPlane();
+        int[] packed = rgb ? new int[outWidth * outHeight] : null;
+        byte[] gray = rgb ? null : new byte[outWidth * outHeight];
+        int[] shifts = rgb ? new int[] { 16, 8, 0 } : new int[] { 0 };
+        TileExecutor.rows(outHeight, 0, (from, to) -> {
+            int[] value = new int[3];
+            int[] taps = new int[16];
+            for (int i = from * outWidth; i < to * outWidth; i++) {
+                if (tapX[i] == OUTSIDE)
+                    continue;
+                if (interpolation == Warp.BILINEAR)
+                    bilinear(data, i, shifts, taps, value);
+                else
+                    bicubic(data, i, shifts, taps, value);
+                if (rgb)
+                    packed[i] = (value[0] << 16) | (value[1] << 8) | value[2];
+                else
+                    gray[i] = (byte) value[0];
+            }
+        });
+        return rgb ? new PixelRaster(outWidth, outHeight, packed) : new PixelRaster(outWidth, outHeight, gray);
+    }
+
+    // the source pixels of the size x size taps from (x0, y0) into taps, clamped to the source
+    private void readTaps(int[] data, int x0, int y0, int size, int[] taps) {
+        if (x0 >= 0 && y0 >= 0 && x0 + size <= srcWidth && y0 + size <= srcHeight) {
+            for (int j = 0; j < size; j++) {
+                System.arraycopy(data, (y0 + j) * srcWidth + x0, taps, j * size, size);
+            }
+            return;
+        }
+        for (int j = 0; j < size; j++) {
+            int y = Math.min(Math.max(y0 + j, 0), srcHeight - 1);
+            for (int k = 0; k < size; k++) {
+                int x = Math.min(Math.max(x0 + k, 0), srcWidth - 1);
+                taps[j * size + k] = data[y * srcWidth + x];
+            }
+        }
+    }
+
+    private void bilinear(int[] data, int i, int[] shifts, int[] taps, int[] value) {
+        readTaps(data, tapX[i], tapY[i], 2, taps);
+        int fx = weights[2 * i], fy = weights[2 * i + 1];
+        for (int c = 0; c < shifts.length; c++) {
+            int shift = shifts[c];
+            long top = ((taps[0] >> shift) & 0xff) * (ONE - fx) + ((taps[1] >> shift) & 0xff) * fx;
+            long bottom = ((taps[2] >> shift) & 0xff) * (ONE - fx) + ((taps[3] >> shift) & 0xff) * fx;
+            value[c] = (int) ((top * (ONE - fy) + bottom * fy + (1L << (2 * BITS - 1))) >> (2 * BITS));
+        }
+    }
+
+    private void bicubic(int[] data, int i, int[] shifts, int[] taps, int[] value) {
+        readTaps(data, tapX[i], tapY[i], 4, taps);
+        int w = 8 * i;
+        for (int c = 0; c < shifts.length; c++) {
+            int shift = shifts[c];
+            long sum = 0;
+            for (int j = 0; j < 4; j++) {
+                int row = ((taps[4 * j] >> shift) & 0xff) * weights[w] + ((taps[4 * j + 1] >> shift) & 0xff) * weights[w + 1]
+                        + ((taps[4 * j + 2] >> shift) & 0xff) * weights[w + 2]
+                        + ((taps[4 * j + 3] >> shift) & 0xff) * weights[w + 3];
+                sum += (long) row * weights[w + 4 + j];
+            }
+            int v = (int) ((sum + (1L << (2 * BITS - 1))) >> (2 * BITS));
+            value[c] = v > 255 ? 255 : v < 0 ? 0 : v;
+        }
+    }
+}
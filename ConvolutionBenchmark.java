@@ -0,0 +1,45 @@
+// Times the direct loop of linearSpatialFilter against the FFT path for growing kernel
+// sizes on one image, the first size where the FFT wins is what FFT_KERNEL_SIZE should be
+// Usage: java ConvolutionBenchmark [image]
+public class ConvolutionBenchmark {
+    public static void main(String[] args) {
+        String fileName = args.length > 0 ? args[0] : "images/FinalDIP67.bmp";
+        ImageManager im = new ImageManager();
+        if (!im.read(fileName))
+            return;
+        int[] plane = im.getRaster().grayPlane();
+
+        int crossover = -1;
+        System.out.println("size   direct ms   fft ms   max diff");
+        for (int size = 3; size <= 31; size += 2) {
+            double[] kernel = new double[size * size];
+            for (int i = 0; i < kernel.length; i++) {
+                kernel[i] = 1.0 / kernel.length;
+            }
+            // the first run of each path only warms it up
+            int[] direct = im.linearSpatialPlane(plane, kernel, size, false);
+            int[] fft = im.linearSpatialPlane(plane, kernel, size, true);
+            long directTime = Long.MAX_VALUE, fftTime = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                im.linearSpatialPlane(plane, kernel, size, false);
+                directTime = Math.min(directTime, System.nanoTime() - start);
+                start = System.nanoTime();
+                im.linearSpatialPlane(plane, kernel, size, true);
+                fftTime = Math.min(fftTime, System.nanoTime() - start);
+            }
+            int maxDiff = 0;
+            for (int i = 0; i < direct.length; i++) {
+                maxDiff = Math.max(maxDiff, Math.abs(direct[i] - fft[i]));
+            }
+            if (crossover == -1 && fftTime < directTime)
+                crossover = size;
+            System.out.printf("%4d %11.2f %8.2f %10d%n", size, directTime / 1e6, fftTime / 1e6, maxDiff);
+        }
+        if (crossover == -1)
+            System.out.println("The direct loop was faster for every size");
+        else
+            System.out.println("The FFT is faster from size " + crossover
+                    + " (FFT_KERNEL_SIZE is " + ImageManager.FFT_KERNEL_SIZE + ")");
+    }
+}
@@ -0,0 +1,96 @@
+// The strongest corners seen so far, at most capacity of them
+// A min-heap on (value, index) in two primitive arrays: the weakest kept corner is at the
+// top, so a new one only has to beat it and costs O(log capacity) instead of an insertion
+// into a sorted list. Equal values rank by index, a later pixel in scan order ranking higher.
+class CornerHeap {
+    private final double[] values;
+    private final int[] indices;
+    private int size;
+
+    CornerHeap(int capacity) {
+        values = new double[Math.max(capacity, 0)];
+        indices = new int[Math.max(capacity, 0)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(double value, int index) {
+        if (values.length == 0)
+            return;
+        if (size < values.length) {
+            values[size] = value;
+            indices[size] = index;
+            siftUp(size++);
+        } else if (above(value, index, values[0], indices[0])) {
+            values[0] = value;
+            indices[0] = index;
+            siftDown(0);
+        }
+    }
+
+    // every corner of other offered to this heap
+    public void addAll(CornerHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.values[i], other.indices[i]);
+        }
+    }
+
+    // indices of the kept corners, strongest first
+    public int[] sortedIndices() {
+        int n = size;
+        double[] v = values.clone();
+        int[] idx = indices.clone();
+        int[] sorted = new int[n];
+        // popping the top gives the weakest first
+        for (int k = n - 1; k >= 0; k--) {
+            sorted[k] = indices[0];
+            size--;
+            values[0] = values[size];
+            indices[0] = indices[size];
+            siftDown(0);
+        }
+        System.arraycopy(v, 0, values, 0, n);
+        System.arraycopy(idx, 0, indices, 0, n);
+        size = n;
+        return sorted;
+    }
+
+    private static boolean above(double value, int index, double otherValue, int otherIndex) {
+        return value > otherValue || (value == otherValue && index > otherIndex);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!above(values[parent], indices[parent], values[i], indices[i]))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < size && above(values[smallest], indices[smallest], values[left], indices[left]))
+                smallest = left;
+            if (right < size && above(values[smallest], indices[smallest], values[right], indices[right]))
+                smallest = right;
+            if (smallest == i)
+                return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+        int k = indices[i];
+        indices[i] = indices[j];
+        indices[j] = k;
+    }
+}
@@ -0,0 +1,371 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-place FFT on split real and imaginary arrays for any size
+// Powers of 2 use an iterative radix-2 transform, sizes made of the factors 2, 3 and 5
+// use a mixed-radix transform and every other size goes through Bluestein's chirp z
+// Plans hold the permutation and twiddle tables and are built once per size and shared
+class FFT {
+    private static final int RADIX2 = 0, MIXED = 1, BLUESTEIN = 2;
+    private static final ConcurrentHashMap<Integer, FFT> plans = new ConcurrentHashMap<>();
+
+    public final int n;
+    private final int kind;
+    // radix-2: bit reversal, mixed radix: digit reversal of the input
+    private final int[] reverse;
+    // twiddles exp(-2 pi i k / n), n/2 of them for radix-2 and n for mixed radix
+    private final double[] cos;
+    private final double[] sin;
+    // mixed radix factors, the first one is combined in the last stage
+    private final int[] factors;
+    // Bluestein: chirp exp(-pi i k^2 / n), the transformed conjugate chirp and its power of 2 plan
+    private final double[] chirpRe, chirpIm;
+    private final double[] kernelRe, kernelIm;
+    private final FFT sub;
+
+    private FFT(int n) {
+        this.n = n;
+        int[] f = factorize(n);
+        if ((n & (n - 1)) == 0) {
+            kind = RADIX2;
+            factors = null;
+            int bits = Integer.numberOfTrailingZeros(n);
+            reverse = new int[n];
+            for (int i = 1; i < n; i++) {
+                reverse[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            fillTwiddles(cos, sin, n);
+            chirpRe = chirpIm = kernelRe = kernelIm = null;
+            sub = null;
+        } else if (f != null) {
+            kind = MIXED;
+            factors = f;
+            reverse = new int[n];
+            digitReverse(reverse, 0, n, 0, 1, 0);
+            cos = new double[n];
+            sin = new double[n];
+            fillTwiddles(cos, sin, n);
+            chirpRe = chirpIm = kernelRe = kernelIm = null;
+            sub = null;
+        } else {
+            kind = BLUESTEIN;
+            factors = null;
+            reverse = null;
+            cos = sin = null;
+            int m = Integer.highestOneBit(2 * n - 1) << 1;
+            sub = forSize(m);
+            chirpRe = new double[n];
+            chirpIm = new double[n];
+            for (int k = 0; k < n; k++) {
+                // k^2 mod 2n keeps the angle small and exact
+                long k2 = (long) k * k % (2L * n);
+                double kth = -Math.PI * k2 / n;
+                chirpRe[k] = Math.cos(kth);
+                chirpIm[k] = Math.sin(kth);
+            }
+            kernelRe = new double[m];
+            kernelIm = new double[m];
+            kernelRe[0] = chirpRe[0];
+            kernelIm[0] = -chirpIm[0];
+            for (int k = 1; k < n; k++) {
+                kernelRe[k] = kernelRe[m - k] = chirpRe[k];
+                kernelIm[k] = kernelIm[m - k] = -chirpIm[k];
+            }
+            sub.transform(kernelRe, kernelIm, 0, false, null);
+        }
+    }
+
+    public static FFT forSize(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("FFT size must be positive, got " + n);
+        // not computeIfAbsent, a Bluestein plan builds its power of 2 plan while being created
+        FFT plan = plans.get(n);
+        if (plan == null) {
+            plan = new FFT(n);
+            FFT other = plans.putIfAbsent(n, plan);
+            if (other != null)
+                plan = other;
+        }
+        return plan;
+    }
+
+    // split n into radix 5, 3, 4 and 2 factors, null if anything else is left
+    private static int[] factorize(int n) {
+        int[] f = new int[32];
+        int count = 0;
+        for (int r : new int[] { 5, 3, 4, 2 }) {
+            while (n % r == 0) {
+                f[count++] = r;
+                n /= r;
+            }
+        }
+        return n == 1 ? Arrays.copyOf(f, count) : null;
+    }
+
+    private static void fillTwiddles(double[] cos, double[] sin, int n) {
+        for (int k = 0; k < cos.length; k++) {
+            double kth = -2 * k * Math.PI / n;
+            cos[k] = Math.cos(kth);
+            sin[k] = Math.sin(kth);
+        }
+    }
+
+    // position pos of the reordered input holds x[start], the sub sequences of a split by
+    // factors[level] are laid out one after the other
+    private void digitReverse(int[] table, int pos, int size, int start, int stride, int level) {
+        if (size == 1) {
+            table[pos] = start;
+            return;
+        }
+        int r = factors[level];
+        int m = size / r;
+        for (int j = 0; j < r; j++) {
+            digitReverse(table, pos + j * m, m, start + j * stride, stride * r, level + 1);
+        }
+    }
+
+    // number of doubles transform needs as scratch
+    public int scratchSize() {
+        if (kind == MIXED)
+            return 2 * n;
+        if (kind == BLUESTEIN)
+            return 2 * sub.n;
+        return 0;
+    }
+
+    public void transform(double[] re, double[] im, int offset, boolean inverse) {
+        transform(re, im, offset, inverse, new double[scratchSize()]);
+    }
+
+    // Transform the n values starting at offset in place
+    // The inverse uses the conjugate twiddles and divides by n
+    public void transform(double[] re, double[] im, int offset, boolean inverse, double[] scratch) {
+        transform(re, offset, im, offset, inverse, scratch);
+    }
+
+    // same with separate offsets for the real and imaginary parts
+    private void transform(double[] re, int ro, double[] im, int io, boolean inverse, double[] scratch) {
+        if (kind == RADIX2)
+            radix2(re, ro, im, io, inverse);
+        else if (kind == MIXED)
+            mixedRadix(re, ro, im, io, inverse, scratch);
+        else
+            bluestein(re, ro, im, io, inverse, scratch);
+        if (inverse) {
+            double scale = 1.0 / n;
+            for (int i = 0; i < n; i++) {
+                re[ro + i] *= scale;
+                im[io + i] *= scale;
+            }
+        }
+    }
+
+    private void radix2(double[] re, int ro, double[] im, int io, boolean inverse) {
+        // bit reversal permutation
+        for (int i = 1; i < n; i++) {
+            int j = reverse[i];
+            if (j > i) {
+                double t = re[ro + i];
+                re[ro + i] = re[ro + j];
+                re[ro + j] = t;
+                t = im[io + i];
+                im[io + i] = im[io + j];
+                im[io + j] = t;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        // butterflies, len is the size of the sub transforms being combined
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int k = 0; k < half; k++) {
+                double wr = cos[k * step];
+                double wi = sign * sin[k * step];
+                for (int a = k; a < n; a += len) {
+                    int b = a + half;
+                    double tr = wr * re[ro + b] - wi * im[io + b];
+                    double ti = wr * im[io + b] + wi * re[ro + b];
+                    re[ro + b] = re[ro + a] - tr;
+                    im[io + b] = im[io + a] - ti;
+                    re[ro + a] += tr;
+                    im[io + a] += ti;
+                }
+            }
+        }
+    }
+
+    private void mixedRadix(double[] re, int ro, double[] im, int io, boolean inverse, double[] scratch) {
+        // digit reversal through the scratch buffer
+        for (int i = 0; i < n; i++) {
+            scratch[i] = re[ro + reverse[i]];
+            scratch[n + i] = im[io + reverse[i]];
+        }
+        System.arraycopy(scratch, 0, re, ro, n);
+        System.arraycopy(scratch, n, im, io, n);
+        double sign = inverse ? -1 : 1;
+        // combine r transforms of size len into one of size len * r
+        int len = 1;
+        for (int level = factors.length - 1; level >= 0; level--) {
+            int r = factors[level];
+            if (r == 2)
+                pass2(re, ro, im, io, len, sign);
+            else if (r == 3)
+                pass3(re, ro, im, io, len, sign);
+            else if (r == 4)
+                pass4(re, ro, im, io, len, sign);
+            else
+                pass5(re, ro, im, io, len, sign);
+            len *= r;
+        }
+    }
+
+    // In the passes input j of a butterfly is first twiddled by w_(len r)^(j k), which is
+    // twiddle j k step, and then goes through a DFT of size r written out by hand
+    // Multiplying by -i sign turns (x, y) into (sign y, -sign x)
+
+    private void pass2(double[] re, int ro, double[] im, int io, int len, double sign) {
+        int step = n / (2 * len);
+        for (int k = 0; k < len; k++) {
+            double w1r = cos[k * step], w1i = sign * sin[k * step];
+            for (int a = ro + k, b = io + k; a < ro + n; a += 2 * len, b += 2 * len) {
+                double x1r = w1r * re[a + len] - w1i * im[b + len];
+                double x1i = w1r * im[b + len] + w1i * re[a + len];
+                double x0r = re[a], x0i = im[b];
+                re[a] = x0r + x1r;
+                im[b] = x0i + x1i;
+                re[a + len] = x0r - x1r;
+                im[b + len] = x0i - x1i;
+            }
+        }
+    }
+
+    private void pass3(double[] re, int ro, double[] im, int io, int len, double sign) {
+        int step = n / (3 * len);
+        double s60 = sign * Math.sqrt(3) / 2;
+        for (int k = 0; k < len; k++) {
+            double w1r = cos[k * step], w1i = sign * sin[k * step];
+            double w2r = cos[2 * k * step], w2i = sign * sin[2 * k * step];
+            for (int a = ro + k, b = io + k; a < ro + n; a += 3 * len, b += 3 * len) {
+                double x0r = re[a], x0i = im[b];
+                double x1r = w1r * re[a + len] - w1i * im[b + len];
+                double x1i = w1r * im[b + len] + w1i * re[a + len];
+                double x2r = w2r * re[a + 2 * len] - w2i * im[b + 2 * len];
+                double x2i = w2r * im[b + 2 * len] + w2i * re[a + 2 * len];
+                double tr = x1r + x2r, ti = x1i + x2i;
+                double mr = x0r - 0.5 * tr, mi = x0i - 0.5 * ti;
+                double dr = s60 * (x1i - x2i), di = -s60 * (x1r - x2r);
+                re[a] = x0r + tr;
+                im[b] = x0i + ti;
+                re[a + len] = mr + dr;
+                im[b + len] = mi + di;
+                re[a + 2 * len] = mr - dr;
+                im[b + 2 * len] = mi - di;
+            }
+        }
+    }
+
+    private void pass4(double[] re, int ro, double[] im, int io, int len, double sign) {
+        int step = n / (4 * len);
+        for (int k = 0; k < len; k++) {
+            double w1r = cos[k * step], w1i = sign * sin[k * step];
+            double w2r = cos[2 * k * step], w2i = sign * sin[2 * k * step];
+            double w3r = cos[3 * k * step], w3i = sign * sin[3 * k * step];
+            for (int a = ro + k, b = io + k; a < ro + n; a += 4 * len, b += 4 * len) {
+                double x0r = re[a], x0i = im[b];
+                double x1r = w1r * re[a + len] - w1i * im[b + len];
+                double x1i = w1r * im[b + len] + w1i * re[a + len];
+                double x2r = w2r * re[a + 2 * len] - w2i * im[b + 2 * len];
+                double x2i = w2r * im[b + 2 * len] + w2i * re[a + 2 * len];
+                double x3r = w3r * re[a + 3 * len] - w3i * im[b + 3 * len];
+                double x3i = w3r * im[b + 3 * len] + w3i * re[a + 3 * len];
+                double t0r = x0r + x2r, t0i = x0i + x2i;
+                double t1r = x0r - x2r, t1i = x0i - x2i;
+                double t2r = x1r + x3r, t2i = x1i + x3i;
+                // -i sign (x1 - x3)
+                double t3r = sign * (x1i - x3i), t3i = -sign * (x1r - x3r);
+                re[a] = t0r + t2r;
+                im[b] = t0i + t2i;
+                re[a + len] = t1r + t3r;
+                im[b + len] = t1i + t3i;
+                re[a + 2 * len] = t0r - t2r;
+                im[b + 2 * len] = t0i - t2i;
+                re[a + 3 * len] = t1r - t3r;
+                im[b + 3 * len] = t1i - t3i;
+            }
+        }
+    }
+
+    private void pass5(double[] re, int ro, double[] im, int io, int len, double sign) {
+        int step = n / (5 * len);
+        double c1 = Math.cos(2 * Math.PI / 5), c2 = Math.cos(4 * Math.PI / 5);
+        double s1 = sign * Math.sin(2 * Math.PI / 5), s2 = sign * Math.sin(4 * Math.PI / 5);
+        for (int k = 0; k < len; k++) {
+            double w1r = cos[k * step], w1i = sign * sin[k * step];
+            double w2r = cos[2 * k * step], w2i = sign * sin[2 * k * step];
+            double w3r = cos[3 * k * step], w3i = sign * sin[3 * k * step];
+            double w4r = cos[4 * k * step], w4i = sign * sin[4 * k * step];
+            for (int a = ro + k, b = io + k; a < ro + n; a += 5 * len, b += 5 * len) {
+                double x0r = re[a], x0i = im[b];
+                double x1r = w1r * re[a + len] - w1i * im[b + len];
+                double x1i = w1r * im[b + len] + w1i * re[a + len];
+                double x2r = w2r * re[a + 2 * len] - w2i * im[b + 2 * len];
+                double x2i = w2r * im[b + 2 * len] + w2i * re[a + 2 * len];
+                double x3r = w3r * re[a + 3 * len] - w3i * im[b + 3 * len];
+                double x3i = w3r * im[b + 3 * len] + w3i * re[a + 3 * len];
+                double x4r = w4r * re[a + 4 * len] - w4i * im[b + 4 * len];
+                double x4i = w4r * im[b + 4 * len] + w4i * re[a + 4 * len];
+                double t1r = x1r + x4r, t1i = x1i + x4i;
+                double t2r = x2r + x3r, t2i = x2i + x3i;
+                double t3r = x1r - x4r, t3i = x1i - x4i;
+                double t4r = x2r - x3r, t4i = x2i - x3i;
+                double b1r = x0r + c1 * t1r + c2 * t2r, b1i = x0i + c1 * t1i + c2 * t2i;
+                double b2r = x0r + c2 * t1r + c1 * t2r, b2i = x0i + c2 * t1i + c1 * t2i;
+                // -i (s1 t3 + s2 t4) and -i (s2 t3 - s1 t4)
+                double e1r = s1 * t3i + s2 * t4i, e1i = -(s1 * t3r + s2 * t4r);
+                double e2r = s2 * t3i - s1 * t4i, e2i = -(s2 * t3r - s1 * t4r);
+                re[a] = x0r + t1r + t2r;
+                im[b] = x0i + t1i + t2i;
+                re[a + len] = b1r + e1r;
+                im[b + len] = b1i + e1i;
+                re[a + 4 * len] = b1r - e1r;
+                im[b + 4 * len] = b1i - e1i;
+                re[a + 2 * len] = b2r + e2r;
+                im[b + 2 * len] = b2i + e2i;
+                re[a + 3 * len] = b2r - e2r;
+                im[b + 3 * len] = b2i - e2i;
+            }
+        }
+    }
+
+    // x_k = chirp_k * sum_j (x_j chirp_j) conj(chirp_(k-j)), the sum is a circular
+    // convolution of length m done with the power of 2 plan
+    private void bluestein(double[] re, int ro, double[] im, int io, boolean inverse, double[] scratch) {
+        int m = sub.n;
+        double sign = inverse ? -1 : 1;
+        // real part in scratch[0..m), imaginary part in scratch[m..2m)
+        for (int k = 0; k < n; k++) {
+            double cr = chirpRe[k], ci = sign * chirpIm[k];
+            double xr = re[ro + k], xi = im[io + k];
+            scratch[k] = xr * cr - xi * ci;
+            scratch[m + k] = xr * ci + xi * cr;
+        }
+        Arrays.fill(scratch, n, m, 0);
+        Arrays.fill(scratch, m + n, 2 * m, 0);
+        sub.transform(scratch, 0, scratch, m, false, null);
+        for (int k = 0; k < m; k++) {
+            double kr = kernelRe[k], ki = sign * kernelIm[k];
+            double xr = scratch[k], xi = scratch[m + k];
+            scratch[k] = xr * kr - xi * ki;
+            scratch[m + k] = xr * ki + xi * kr;
+        }
+        sub.transform(scratch, 0, scratch, m, true, null);
+        for (int k = 0; k < n; k++) {
+            double cr = chirpRe[k], ci = sign * chirpIm[k];
+            double xr = scratch[k], xi = scratch[m + k];
+            re[ro + k] = xr * cr - xi * ci;
+            im[io + k] = xr * ci + xi * cr;
+        }
+    }
+}
@@ -1,49 +1,84 @@
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 import javax.imageio.ImageIO;
 
 class FrequencyDomainManager {
-    Complex[][] img;
+    // columns moved into a worker's scratch per step of the column pass
+    private static final int STRIP = 16;
+
+    // Only the non-redundant half of the spectrum of the real image is kept, columns
+    // 0..width/2 of every row in natural order with the zero frequency at (0, 0)
+    // The other half is conj(X[height - v][width - u]) and is only rebuilt for writing
+    double[] real, imag;
     int width, height, type;
     int imgWidth, imgHeight;
-    private Complex[][] original;
+    // complex values per spectrum row, width / 2 + 1
+    int spectrumWidth;
+    private double[] originalReal, originalImag;
     ImageManager im;
+    private int parallelism;
 
     public FrequencyDomainManager(ImageManager im) {
+        this(im, 1);
+    }
+
+    // parallelism is the number of workers used for the transforms, 1 runs on the calling thread
+    public FrequencyDomainManager(ImageManager im, int parallelism) {
+        this(im, parallelism, false);
+    }
+
+    // padToPowerOf2 zero pads both sides up to the next power of 2 instead of
+    // transforming the image at its own size
+    public FrequencyDomainManager(ImageManager im, int parallelism, boolean padToPowerOf2) {
+        if (parallelism < 1) {
+            System.out.println("INVALID Parallelism! Using 1");
+            parallelism = 1;
+        }
         this.im = im;
+        this.parallelism = parallelism;
         imgWidth = im.width;
         imgHeight = im.height;
-        width = nextPowerOf2(imgWidth);
-        height = nextPowerOf2(imgHeight);
-        type = im.getImage().getType();
-        img = new Complex[height][width];
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = im.getImage().getRGB(x, y);
-                int gray = color & 0xff;
-                img[y][x] = new Complex(gray, 0);
-            }
-        }
-        fft2d(false);
-        shifting();
+        width = padToPowerOf2 ? nextPowerOf2(imgWidth) : imgWidth;
+        height = padToPowerOf2 ? nextPowerOf2(imgHeight) : imgHeight;
+        spectrumWidth = width / 2 + 1;
+        type = im.getType();
+        real = new double[spectrumWidth * height];
+        imag = new double[spectrumWidth * height];
+
+        rowPass(im.getRaster().grayPlane(), parallelism);
+        columnPass(false, parallelism);
         // store original
-        original = new Complex[height][width];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                original[y][x] = new Complex(img[y][x].re, img[y][x].im);
+        originalReal = real.clone();
+        originalImag = imag.clone();
+    }
+
+    // rows of the image into half spectrum rows, zero padding outside of the image
+    private void rowPass(int[] pixels, int parallelism) {
+        RealFFT rows = RealFFT.forSize(width);
+        runWorkers(parallelism, worker -> {
+            double[][] scratch = rows.newScratch();
+            double[] line = new double[width];
+            int end = (worker + 1) * height / parallelism;
+            for (int y = worker * height / parallelism; y < end; y++) {
+                if (y >= imgHeight)
+                    continue;
+                for (int x = 0; x < imgWidth; x++) {
+                    line[x] = pixels[y * imgWidth + x];
+                }
+                rows.forward(line, 0, real, imag, y * spectrumWidth, scratch);
             }
-        }
+        });
     }
 
     public void restoreToOriginal() {
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img[y][x] = new Complex(original[y][x].re, original[y][x].im);
-            }
-        }
+        System.arraycopy(originalReal, 0, real, 0, real.length);
+        System.arraycopy(originalImag, 0, imag, 0, imag.length);
     }
 
     public static int nextPowerOf2(final int a) {
@@ -55,111 +90,229 @@ class FrequencyDomainManager {
     }
 
     public static Complex[] fft(Complex[] x) {
+        return transform(x, false);
+    }
+
+    // compute the inverse FFT of x[]
+    public static Complex[] ifft(Complex[] x) {
+        return transform(x, true);
+    }
+
+    private static Complex[] transform(Complex[] x, boolean inverse) {
         int n = nextPowerOf2(x.length);
         // padding
-        Complex[] fftArray = new Complex[n];
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int i = 0; i < x.length; i++) {
+            re[i] = x[i].re;
+            im[i] = x[i].im;
+        }
+        FFT.forSize(n).transform(re, im, 0, inverse);
+        Complex[] y = new Complex[n];
         for (int i = 0; i < n; i++) {
-            fftArray[i] = new Complex();
-            if (i < x.length) {
-                fftArray[i].re = x[i].re;
-                fftArray[i].im = x[i].im;
+            y[i] = new Complex(re[i], im[i]);
+        }
+        return y;
+    }
+
+    // Correlation of a width x height plane with a size x size kernel through the FFT,
+    // sum over the window of src * kernel with zeros outside the plane, the same sums as
+    // the direct loop in ImageManager.linearSpatialPlane
+    // The plane is cut into tiles that are transformed one at a time against the
+    // transformed (flipped) kernel and the full linear result of every tile is added
+    // into the output (overlap-add), so the transforms stay small for large images
+    public static double[] correlate(int[] src, int width, int height, double[] kernel, int size) {
+        int half = size / 2;
+        // transform size per side, at least 128 and 4 times the kernel, at most the whole plane
+        int tileWidth = Math.min(nextPowerOf2(Math.max(128, 4 * size)), nextPowerOf2(width + size - 1));
+        int tileHeight = Math.min(nextPowerOf2(Math.max(128, 4 * size)), nextPowerOf2(height + size - 1));
+        // input block per tile, its linear result still fits in the tile
+        int blockWidth = tileWidth - size + 1;
+        int blockHeight = tileHeight - size + 1;
+        int spectrumWidth = tileWidth / 2 + 1;
+        RealFFT rows = RealFFT.forSize(tileWidth);
+        FFT columns = FFT.forSize(tileHeight);
+        double[][] rowScratch = rows.newScratch();
+        double[] columnScratch = new double[columns.scratchSize()];
+        double[] columnRe = new double[tileHeight];
+        double[] columnIm = new double[tileHeight];
+        double[] tile = new double[tileWidth * tileHeight];
+
+        // correlating with the kernel is convolving with the kernel turned by 180 degrees
+        double[] kernelRe = new double[spectrumWidth * tileHeight];
+        double[] kernelIm = new double[spectrumWidth * tileHeight];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                tile[i * tileWidth + j] = kernel[(size - 1 - i) * size + size - 1 - j];
             }
         }
-        // base case
-        if (n == 1)
-            return new Complex[] { fftArray[0] };
-        // compute FFT of even terms
-        Complex[] even = new Complex[n / 2];
-        for (int k = 0; k < n / 2; k++) {
-            even[k] = fftArray[2 * k];
+        tileForward(tile, tileWidth, tileHeight, size, kernelRe, kernelIm, rows, rowScratch, columns, columnRe,
+                columnIm, columnScratch);
+
+        double[] re = new double[spectrumWidth * tileHeight];
+        double[] im = new double[spectrumWidth * tileHeight];
+        double[] out = new double[width * height];
+        for (int by = 0; by < height; by += blockHeight) {
+            int rowsUsed = Math.min(blockHeight, height - by);
+            for (int bx = 0; bx < width; bx += blockWidth) {
+                int columnsUsed = Math.min(blockWidth, width - bx);
+                Arrays.fill(tile, 0);
+                for (int y = 0; y < rowsUsed; y++) {
+                    for (int x = 0; x < columnsUsed; x++) {
+                        tile[y * tileWidth + x] = src[(by + y) * width + bx + x];
+                    }
+                }
+                tileForward(tile, tileWidth, tileHeight, rowsUsed, re, im, rows, rowScratch, columns, columnRe,
+                        columnIm, columnScratch);
+                for (int i = 0; i < re.length; i++) {
+                    double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+                    im[i] = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+                    re[i] = r;
+                }
+                tileInverse(tile, tileWidth, tileHeight, re, im, rows, rowScratch, columns, columnRe, columnIm,
+                        columnScratch);
+                // the linear result of the block starts half a kernel up and left of it
+                int yEnd = Math.min(rowsUsed + size - 1, height - by + half);
+                int xEnd = Math.min(columnsUsed + size - 1, width - bx + half);
+                for (int y = Math.max(0, half - by); y < yEnd; y++) {
+                    int outRow = (by + y - half) * width + bx - half;
+                    for (int x = Math.max(0, half - bx); x < xEnd; x++) {
+                        out[outRow + x] += tile[y * tileWidth + x];
+                    }
+                }
+            }
         }
-        Complex[] evenFFT = fft(even);
-        // compute FFT of odd terms
-        Complex[] odd = even; // reuse the array (to avoid n log n space)
-        for (int k = 0; k < n / 2; k++) {
-            odd[k] = fftArray[2 * k + 1];
+        return out;
+    }
+
+    // 2-D transform of a real tile into its half spectrum, only the first rowsUsed rows
+    // hold values
+    private static void tileForward(double[] tile, int tileWidth, int tileHeight, int rowsUsed, double[] re,
+            double[] im, RealFFT rows, double[][] rowScratch, FFT columns, double[] columnRe, double[] columnIm,
+            double[] columnScratch) {
+        int spectrumWidth = tileWidth / 2 + 1;
+        for (int y = 0; y < rowsUsed; y++) {
+            rows.forward(tile, y * tileWidth, re, im, y * spectrumWidth, rowScratch);
         }
-        Complex[] oddFFT = fft(odd);
-        // combine
-        Complex[] y = new Complex[n];
-        for (int k = 0; k < n / 2; k++) {
-            double kth = -2 * k * Math.PI / n;
-            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-            y[k] = evenFFT[k].add(wk.mult(oddFFT[k]));
-            y[k + n / 2] = evenFFT[k].sub(wk.mult(oddFFT[k]));
+        Arrays.fill(re, rowsUsed * spectrumWidth, re.length, 0);
+        Arrays.fill(im, rowsUsed * spectrumWidth, im.length, 0);
+        transformColumns(re, im, spectrumWidth, tileHeight, false, columns, columnRe, columnIm, columnScratch);
+    }
+
+    private static void tileInverse(double[] tile, int tileWidth, int tileHeight, double[] re, double[] im,
+            RealFFT rows, double[][] rowScratch, FFT columns, double[] columnRe, double[] columnIm,
+            double[] columnScratch) {
+        int spectrumWidth = tileWidth / 2 + 1;
+        transformColumns(re, im, spectrumWidth, tileHeight, true, columns, columnRe, columnIm, columnScratch);
+        for (int y = 0; y < tileHeight; y++) {
+            rows.inverse(re, im, y * spectrumWidth, tile, y * tileWidth, rowScratch);
         }
-        return y;
     }
 
-    private void fft2d(boolean invert) {
-        Complex[] temp = new Complex[width];
-        // horizontal first
-        for (int y = 0; y < height; y++) {
-            for (int u = 0; u < width; u++) {
-                temp[u] = new Complex();
-                temp[u].re = img[y][u].re;
-                temp[u].im = img[y][u].im;
+    private static void transformColumns(double[] re, double[] im, int spectrumWidth, int tileHeight,
+            boolean invert, FFT columns, double[] columnRe, double[] columnIm, double[] columnScratch) {
+        for (int u = 0; u < spectrumWidth; u++) {
+            for (int v = 0; v < tileHeight; v++) {
+                columnRe[v] = re[v * spectrumWidth + u];
+                columnIm[v] = im[v * spectrumWidth + u];
             }
-            if (!invert)
-                temp = fft(temp);
-            else
-                temp = ifft(temp);
-            for (int u = 0; u < width; u++) {
-                img[y][u].re = temp[u].re;
-                img[y][u].im = temp[u].im;
+            columns.transform(columnRe, columnIm, 0, invert, columnScratch);
+            for (int v = 0; v < tileHeight; v++) {
+                re[v * spectrumWidth + u] = columnRe[v];
+                im[v * spectrumWidth + u] = columnIm[v];
             }
         }
-        // then vertical
-        temp = new Complex[height];
-        for (int x = 0; x < width; x++) {
-            for (int v = 0; v < height; v++) {
-                temp[v] = new Complex();
-                temp[v].re = img[v][x].re;
-                temp[v].im = img[v][x].im;
-            }
-            if (!invert)
-                temp = fft(temp);
-            else
-                temp = ifft(temp);
-            for (int v = 0; v < height; v++) {
-                img[v][x].re = temp[v].re;
-                img[v][x].im = temp[v].im;
+    }
+
+    // complex transform of every spectrum column, workers transpose strips of columns
+    // into their own scratch so every column is transformed as a contiguous row
+    private void columnPass(boolean invert, int parallelism) {
+        FFT columns = FFT.forSize(height);
+        int strips = (spectrumWidth + STRIP - 1) / STRIP;
+        runWorkers(parallelism, worker -> {
+            double[] re = new double[STRIP * height];
+            double[] im = new double[STRIP * height];
+            double[] scratch = new double[columns.scratchSize()];
+            for (int strip = worker; strip < strips; strip += parallelism) {
+                int x0 = strip * STRIP;
+                int count = Math.min(STRIP, spectrumWidth - x0);
+                for (int v = 0; v < height; v++) {
+                    int row = v * spectrumWidth + x0;
+                    for (int c = 0; c < count; c++) {
+                        re[c * height + v] = real[row + c];
+                        im[c * height + v] = imag[row + c];
+                    }
+                }
+                for (int c = 0; c < count; c++) {
+                    columns.transform(re, im, c * height, invert, scratch);
+                }
+                for (int v = 0; v < height; v++) {
+                    int row = v * spectrumWidth + x0;
+                    for (int c = 0; c < count; c++) {
+                        real[row + c] = re[c * height + v];
+                        imag[row + c] = im[c * height + v];
+                    }
+                }
             }
+        });
+    }
+
+    // run body for every worker id on the common pool, worker 0 on the calling thread
+    // every worker touches its own rows or columns so the result does not depend on scheduling
+    private static void runWorkers(int parallelism, IntConsumer body) {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[parallelism - 1];
+        for (int worker = 1; worker < parallelism; worker++) {
+            final int id = worker;
+            tasks[worker - 1] = ForkJoinPool.commonPool().submit(() -> body.accept(id));
         }
+        body.accept(0);
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    // signed distance of index i from the zero frequency once the spectrum is centred,
+    // the centred position of i is (i + n / 2) % n with the zero frequency at n / 2
+    private static int centred(int i, int n) {
+        return (i + n / 2) % n - n / 2;
+    }
+
+    // index into the half spectrum of the pixel (x, y) of the centred full spectrum,
+    // negative -(index + 1) when the value is the conjugate of the stored one
+    private int spectrumIndex(int x, int y) {
+        int u = (x + width - width / 2) % width;
+        int v = (y + height - height / 2) % height;
+        if (u < spectrumWidth)
+            return v * spectrumWidth + u;
+        return -(((height - v) % height) * spectrumWidth + width - u) - 1;
     }
 
     public boolean writeSpectrumLogScaled(String fileName) {
         try {
-            BufferedImage tempimg = new BufferedImage(width, height, type);
+            // the magnitude is the same for both halves
             double max = Double.MIN_VALUE, min = Double.MAX_VALUE;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    double spectrum = img[y][x].length();
-                    if (spectrum > max)
-                        max = spectrum;
-                    if (spectrum < min)
-                        min = spectrum;
-                }
+            for (int i = 0; i < real.length; i++) {
+                double spectrum = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+                if (spectrum > max)
+                    max = spectrum;
+                if (spectrum < min)
+                    min = spectrum;
             }
             min = min < 1.0f ? 0f : Math.log10(min);
             max = max < 1.0f ? 0f : Math.log10(max);
+            int[] pixels = new int[width * height];
             for (int y = 0; y < height; y++) {
                 for (int x = 0; x < width; x++) {
-                    double spectrum = img[y][x].length();
+                    int i = spectrumIndex(x, y);
+                    i = i < 0 ? -i - 1 : i;
+                    double spectrum = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
                     spectrum = spectrum < 1.0f ? 0f : Math.log10(spectrum);
                     spectrum = ((spectrum - min) * 255 / (max - min));
 
-                    int color = ((int) spectrum << 16) | ((int) spectrum << 8) | (int) spectrum;
-
-                    tempimg.setRGB(x, y, color);
-                }
-            }
-            BufferedImage img = new BufferedImage(width, height, type);
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    img.setRGB(x, y, tempimg.getRGB(x, y));
+                    pixels[y * width + x] = ((int) spectrum << 16) | ((int) spectrum << 8) | (int) spectrum;
                 }
             }
+            BufferedImage img = new PixelRaster(width, height, pixels).toBufferedImage(type);
             ImageIO.write(img, "bmp", new File(fileName));
             System.out.println("Image " + fileName + " has been written!");
             return true;
@@ -171,25 +324,26 @@ class FrequencyDomainManager {
 
     public boolean writePhase(String fileName) {
         try {
-            BufferedImage imgOut = new BufferedImage(width, height, type);
+            // the conjugate half has the negated phase, so the range is symmetric
             double max = Double.MIN_VALUE, min = Double.MAX_VALUE;
             for (int y = 0; y < height; y++) {
                 for (int x = 0; x < width; x++) {
-                    double phase = (Math.atan2(img[y][x].im, img[y][x].re));
+                    double phase = phaseAt(x, y);
                     if (phase > max)
                         max = phase;
                     if (phase < min)
                         min = phase;
                 }
             }
+            int[] pixels = new int[width * height];
             for (int y = 0; y < height; y++) {
                 for (int x = 0; x < width; x++) {
-                    double phase = (Math.atan2(img[y][x].im, img[y][x].re));
+                    double phase = phaseAt(x, y);
                     phase = ((phase - min) * 255 / (max - min));
-                    int color = ((int) phase << 16) | ((int) phase << 8) | (int) phase;
-                    imgOut.setRGB(x, y, color);
+                    pixels[y * width + x] = ((int) phase << 16) | ((int) phase << 8) | (int) phase;
                 }
             }
+            BufferedImage imgOut = new PixelRaster(width, height, pixels).toBufferedImage(type);
             ImageIO.write(imgOut, "bmp", new File(fileName));
             System.out.println("Image " + fileName + " has been written!");
             return true;
@@ -199,79 +353,54 @@ class FrequencyDomainManager {
         }
     }
 
-    private void shifting() {
-        int halfWidth = width / 2;
-        int halfHeight = height / 2;
-        for (int y = 0; y < halfHeight; y++) {
-            for (int x = 0; x < width; x++) {
-                Complex temp = new Complex(img[y][x].re, img[y][x].im);
-                img[y][x].re = img[y + halfHeight][x].re;
-                img[y][x].im = img[y + halfHeight][x].im;
-                img[y + halfHeight][x].re = temp.re;
-                img[y + halfHeight][x].im = temp.im;
-            }
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < halfWidth; x++) {
-                Complex temp = new Complex(img[y][x].re, img[y][x].im);
-                img[y][x].re = img[y][x + halfWidth].re;
-                img[y][x].im = img[y][x + halfWidth].im;
-                img[y][x + halfWidth].re = temp.re;
-                img[y][x + halfWidth].im = temp.im;
-            }
-        }
+    private double phaseAt(int x, int y) {
+        int i = spectrumIndex(x, y);
+        if (i < 0)
+            return Math.atan2(-imag[-i - 1], real[-i - 1]);
+        return Math.atan2(imag[i], real[i]);
     }
 
     public void getInverse() {
-        shifting();
-        fft2d(true);
-        for (int y = 0; y < imgHeight; y++) {
-            for (int x = 0; x < imgWidth; x++) {
-                int gray = (int) img[y][x].re;
-                gray = gray > 255 ? 255 : gray;
-                gray = gray < 0 ? 0 : gray;
-                int color = (gray << 16) | (gray << 8) | gray;
-                im.getImage().setRGB(x, y, color);
-            }
-        }
+        getInverse(parallelism);
     }
 
-    // compute the inverse FFT of x[]
-    public static Complex[] ifft(Complex[] x) {
-        int n = x.length;
-        Complex[] y = new Complex[n];
-        // take conjugate
-        for (int i = 0; i < n; i++) {
-            y[i] = x[i].conjugate();
-        }
-        // compute forward FFT
-        y = fft(y);
-        // take conjugate again
-        for (int i = 0; i < n; i++) {
-            y[i] = y[i].conjugate();
-        }
-        // divide by n
-        for (int i = 0; i < n; i++) {
-            y[i] = y[i].scale(1.0 / n);
+    public void getInverse(int parallelism) {
+        if (parallelism < 1) {
+            System.out.println("INVALID Parallelism!");
+            return;
         }
-        return y;
+        columnPass(true, parallelism);
+        // half spectrum rows back into real image rows
+        int[] pixels = new int[imgWidth * imgHeight];
+        RealFFT rows = RealFFT.forSize(width);
+        runWorkers(parallelism, worker -> {
+            double[][] scratch = rows.newScratch();
+            double[] line = new double[width];
+            int end = (worker + 1) * imgHeight / parallelism;
+            for (int y = worker * imgHeight / parallelism; y < end; y++) {
+                rows.inverse(real, imag, y * spectrumWidth, line, 0, scratch);
+                for (int x = 0; x < imgWidth; x++) {
+                    int gray = (int) line[x];
+                    gray = gray > 255 ? 255 : gray;
+                    gray = gray < 0 ? 0 : gray;
+                    pixels[y * imgWidth + x] = gray;
+                }
+            }
+        });
+        im.getRaster().setPlanes(new int[][] { pixels });
     }
 
+    // Every filter multiplies the spectrum by a transfer function taken from the
+    // FrequencyFilter cache, distances are measured from the centre of the centred
+    // spectrum and the masks are symmetric, so the half spectrum stays the half spectrum
+    // of a real image
+
     public void ILPF(double radius) {
         if (radius <= 0 || radius > Math.min(width / 2, height / 2)) {
             System.out.println("INVALID Radius!");
             return;
         }
-        int centerX = width / 2;
-        int centerY = height / 2;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY) > radius * radius) {
-                    img[y][x].re = 0;
-                    img[y][x].im = 0;
-                }
-            }
-        }
+        applyMask(FrequencyFilter.IDEAL_LOW_PASS, radius);
     }
 
     public void IHPF(double radius) {
@@ -279,15 +408,80 @@ class FrequencyDomainManager {
             System.out.println("INVALID Radius!");
             return;
         }
-        int centerX = width / 2;
-        int centerY = height / 2;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY) <= radius * radius) {
-                    img[y][x].re = 0;
-                    img[y][x].im = 0;
-                }
-            }
+        applyMask(FrequencyFilter.IDEAL_HIGH_PASS, radius);
+    }
+
+    public void gaussianLowPass(double cutoff) {
+        if (cutoff <= 0) {
+            System.out.println("INVALID Cutoff!");
+            return;
+        }
+        applyMask(FrequencyFilter.GAUSSIAN_LOW_PASS, cutoff);
+    }
+
+    public void gaussianHighPass(double cutoff) {
+        if (cutoff <= 0) {
+            System.out.println("INVALID Cutoff!");
+            return;
+        }
+        applyMask(FrequencyFilter.GAUSSIAN_HIGH_PASS, cutoff);
+    }
+
+    public void butterworthLowPass(double cutoff, int order) {
+        if (cutoff <= 0 || order < 1) {
+            System.out.println("INVALID Cutoff or Order!");
+            return;
+        }
+        applyMask(FrequencyFilter.BUTTERWORTH_LOW_PASS, cutoff, order);
+    }
+
+    public void butterworthHighPass(double cutoff, int order) {
+        if (cutoff <= 0 || order < 1) {
+            System.out.println("INVALID Cutoff or Order!");
+            return;
+        }
+        applyMask(FrequencyFilter.BUTTERWORTH_HIGH_PASS, cutoff, order);
+    }
+
+    // passes the ring of radius center that is about bandwidth wide
+    public void gaussianBandPass(double center, double bandwidth) {
+        if (center <= 0 || bandwidth <= 0) {
+            System.out.println("INVALID Center or Bandwidth!");
+            return;
+        }
+        applyMask(FrequencyFilter.GAUSSIAN_BAND_PASS, center, bandwidth);
+    }
+
+    public void butterworthBandPass(double center, double bandwidth, int order) {
+        if (center <= 0 || bandwidth <= 0 || order < 1) {
+            System.out.println("INVALID Center, Bandwidth or Order!");
+            return;
+        }
+        applyMask(FrequencyFilter.BUTTERWORTH_BAND_PASS, center, bandwidth, order);
+    }
+
+    // rejects the frequency (u, v) from the centre of the spectrum and its mirror (-u, -v)
+    public void gaussianNotch(int u, int v, double radius) {
+        if (Math.abs(u) > width / 2 || Math.abs(v) > height / 2 || radius <= 0) {
+            System.out.println("INVALID Notch position or Radius!");
+            return;
+        }
+        applyMask(FrequencyFilter.GAUSSIAN_NOTCH, u, v, radius);
+    }
+
+    public void butterworthNotch(int u, int v, double radius, int order) {
+        if (Math.abs(u) > width / 2 || Math.abs(v) > height / 2 || radius <= 0 || order < 1) {
+            System.out.println("INVALID Notch position, Radius or Order!");
+            return;
+        }
+        applyMask(FrequencyFilter.BUTTERWORTH_NOTCH, u, v, radius, order);
+    }
+
+    private void applyMask(int type, double... params) {
+        double[] mask = FrequencyFilter.mask(type, width, height, params);
+        for (int i = 0; i < mask.length; i++) {
+            real[i] *= mask[i];
+            imag[i] *= mask[i];
         }
     }
 }
@@ -0,0 +1,146 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Transfer functions over the half spectrum kept by FrequencyDomainManager
+// A mask only depends on the filter, its parameters and the transform size, so it is
+// built once and shared by every spectrum of that size. The most recently used masks are
+// kept up to a total size in bytes, least recently used evicted first.
+class FrequencyFilter {
+    static final int IDEAL_LOW_PASS = 0, IDEAL_HIGH_PASS = 1;
+    static final int GAUSSIAN_LOW_PASS = 2, GAUSSIAN_HIGH_PASS = 3, GAUSSIAN_BAND_PASS = 4, GAUSSIAN_NOTCH = 5;
+    static final int BUTTERWORTH_LOW_PASS = 6, BUTTERWORTH_HIGH_PASS = 7, BUTTERWORTH_BAND_PASS = 8,
+            BUTTERWORTH_NOTCH = 9;
+
+    private static final LinkedHashMap<MaskKey, double[]> masks = new LinkedHashMap<>(16, 0.75f, true);
+    private static long capacity = 64L << 20, bytes;
+
+    // params per type:
+    // ideal, gaussian low and high pass: cutoff
+    // butterworth low and high pass: cutoff, order
+    // gaussian band pass: centre, bandwidth
+    // butterworth band pass: centre, bandwidth, order
+    // gaussian notch: u, v, radius
+    // butterworth notch: u, v, radius, order
+    // the notch position is relative to the centre and rejects its mirror image as well
+    public static double[] mask(int type, int width, int height, double... params) {
+        MaskKey key = new MaskKey(type, width, height, params);
+        synchronized (masks) {
+            double[] mask = masks.get(key);
+            if (mask != null)
+                return mask;
+        }
+        // built outside of the lock, a mask asked for twice at once is built twice
+        double[] mask = build(type, width, height, params);
+        synchronized (masks) {
+            long size = 8L * mask.length;
+            if (size <= capacity && masks.put(new MaskKey(type, width, height, params.clone()), mask) == null) {
+                bytes += size;
+                evict();
+            }
+        }
+        return mask;
+    }
+
+    // at most capacity bytes of masks are kept
+    public static void setCapacity(long capacity) {
+        if (capacity < 0) {
+            System.out.println("INVALID CAPACITY!");
+            return;
+        }
+        synchronized (masks) {
+            FrequencyFilter.capacity = capacity;
+            evict();
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (masks) {
+            masks.clear();
+            bytes = 0;
+        }
+    }
+
+    private static void evict() {
+        Iterator<double[]> eldest = masks.values().iterator();
+        while (bytes > capacity) {
+            bytes -= 8L * eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private static double[] build(int type, int width, int height, double[] p) {
+        int spectrumWidth = width / 2 + 1;
+        double[] mask = new double[spectrumWidth * height];
+        for (int v = 0; v < height; v++) {
+            int dy = (v + height / 2) % height - height / 2;
+            for (int u = 0; u < spectrumWidth; u++) {
+                int dx = (u + width / 2) % width - width / 2;
+                mask[v * spectrumWidth + u] = response(type, dx, dy, p);
+            }
+        }
+        return mask;
+    }
+
+    // H at the distance (dx, dy) from the centre of the centred spectrum
+    private static double response(int type, int dx, int dy, double[] p) {
+        double d2 = dx * dx + dy * dy;
+        switch (type) {
+            case IDEAL_LOW_PASS:
+                return d2 > p[0] * p[0] ? 0 : 1;
+            case IDEAL_HIGH_PASS:
+                return d2 <= p[0] * p[0] ? 0 : 1;
+            case GAUSSIAN_LOW_PASS:
+                return Math.exp(-d2 / (2 * p[0] * p[0]));
+            case GAUSSIAN_HIGH_PASS:
+                return 1 - Math.exp(-d2 / (2 * p[0] * p[0]));
+            case BUTTERWORTH_LOW_PASS:
+                return 1 / (1 + Math.pow(d2 / (p[0] * p[0]), p[1]));
+            case BUTTERWORTH_HIGH_PASS:
+                return d2 == 0 ? 0 : 1 / (1 + Math.pow(p[0] * p[0] / d2, p[1]));
+            case GAUSSIAN_BAND_PASS: {
+                // one minus the band reject exp(-((D^2 - C^2) / (D W))^2)
+                if (d2 == 0)
+                    return 0;
+                double t = (d2 - p[0] * p[0]) / (Math.sqrt(d2) * p[1]);
+                return Math.exp(-t * t);
+            }
+            case BUTTERWORTH_BAND_PASS: {
+                // one minus the band reject 1 / (1 + (D W / (D^2 - C^2))^2n)
+                double t = d2 - p[0] * p[0];
+                if (t == 0)
+                    return 1;
+                return 1 - 1 / (1 + Math.pow(Math.sqrt(d2) * p[1] / t, 2 * p[2]));
+            }
+            case GAUSSIAN_NOTCH: {
+                double d1 = (dx - p[0]) * (dx - p[0]) + (dy - p[1]) * (dy - p[1]);
+                double d2m = (dx + p[0]) * (dx + p[0]) + (dy + p[1]) * (dy + p[1]);
+                double r2 = 2 * p[2] * p[2];
+                return (1 - Math.exp(-d1 / r2)) * (1 - Math.exp(-d2m / r2));
+            }
+            case BUTTERWORTH_NOTCH: {
+                double d1 = (dx - p[0]) * (dx - p[0]) + (dy - p[1]) * (dy - p[1]);
+                double d2m = (dx + p[0]) * (dx + p[0]) + (dy + p[1]) * (dy + p[1]);
+                double r2 = p[2] * p[2];
+                double h1 = d1 == 0 ? 0 : 1 / (1 + Math.pow(r2 / d1, p[3]));
+                double h2 = d2m == 0 ? 0 : 1 / (1 + Math.pow(r2 / d2m, p[3]));
+                return h1 * h2;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown filter type " + type);
+        }
+    }
+
+    private record MaskKey(int type, int width, int height, double[] params) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MaskKey k && type == k.type && width == k.width && height == k.height
+                    && Arrays.equals(params, k.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * type + width) + height) + Arrays.hashCode(params);
+        }
+    }
+}
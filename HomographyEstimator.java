@@ -0,0 +1,370 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Homography from many point correspondences, robust to wrong ones
+// Hypotheses come from 4 correspondences at a time, drawn at random (RANSAC) or, given a
+// quality for every correspondence, from the best ones first in a growing pool (PROSAC).
+// Each hypothesis is scored by the correspondences it maps within threshold pixels, and the
+// search stops once the best one is found with the requested confidence. The winner is then
+// refitted to all of its inliers by least squares (DLT with h33 = 1).
+// Points are normalized first (centroid at 0, mean distance sqrt 2) so the systems are well
+// conditioned, and every hypothesis is solved and scored in flat scratch arrays without
+// allocating.
+class HomographyEstimator {
+    private final double threshold, confidence;
+    private final int maxIterations;
+    private final Random random;
+
+    // scratch of one hypothesis, row major 8 x 8 system and its right hand side
+    private final double[] a = new double[64], rhs = new double[8], h = new double[9];
+    private final int[] sample = new int[4];
+    // normalized points, x and y interleaved
+    private double[] src, dst;
+    private boolean[] inliers;
+    private int inlierCount, iterations;
+
+    // threshold in pixels of the destination, confidence of finding the best hypothesis
+    public HomographyEstimator(double threshold, double confidence, int maxIterations, long seed) {
+        this.threshold = threshold;
+        this.confidence = confidence;
+        this.maxIterations = maxIterations;
+        random = new Random(seed);
+    }
+
+    public double[] estimate(double[][] srcPoints, double[][] dstPoints) {
+        return estimate(srcPoints, dstPoints, null);
+    }
+
+    // The homography mapping srcPoints onto dstPoints, h33 = 1, or null when none is found
+    // With quality, higher is better, hypotheses are drawn PROSAC style
+    public double[] estimate(double[][] srcPoints, double[][] dstPoints, double[] quality) {
+        int n = srcPoints.length;
+        if (n < 4 || dstPoints.length != n || (quality != null && quality.length != n)) {
+            System.out.println("INVALID POINTS!");
+            return null;
+        }
+        src = new double[2 * n];
+        dst = new double[2 * n];
+        double[] srcT = normalize(srcPoints, src);
+        double[] dstT = normalize(dstPoints, dst);
+        // squared threshold in normalized destination units
+        double t2 = threshold * dstT[2] * threshold * dstT[2];
+
+        // correspondences from the best quality down
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (quality != null) {
+            Integer[] boxed = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, (i, j) -> Double.compare(quality[j], quality[i]));
+            for (int i = 0; i < n; i++) {
+                order[i] = boxed[i];
+            }
+        }
+
+        double[] best = new double[9];
+        int bestCount = 0;
+        long needed = maxIterations;
+        // PROSAC pool of the pool best correspondences, grown on the schedule of Chum and
+        // Matas: T is the expected number of samples drawn from it, poolEnd the iteration
+        // it grows at
+        int pool = 4;
+        double t = maxIterations;
+        for (int i = 0; i < 4; i++) {
+            t *= (double) (4 - i) / (n - i);
+        }
+        long poolEnd = 1;
+        for (iterations = 0; iterations < needed; iterations++) {
+            if (quality == null) {
+                draw(order, n, -1);
+            } else {
+                if (iterations + 1 >= poolEnd && pool < n) {
+                    double next = t * (pool + 1) / (pool + 1 - 4);
+                    poolEnd += (long) Math.ceil(next - t);
+                    t = next;
+                    pool++;
+                }
+                // the newest member of the pool is always in the sample until the pool
+                // has been drawn from as often as expected
+                draw(order, pool, poolEnd > iterations + 1 ? pool - 1 : -1);
+            }
+            if (degenerate(src) || degenerate(dst) || !solveMinimal())
+                continue;
+            int count = score(t2, bestCount);
+            if (count > bestCount) {
+                bestCount = count;
+                System.arraycopy(h, 0, best, 0, 9);
+                needed = Math.min(maxIterations, iterationsFor(bestCount, n));
+            }
+        }
+        // the 4 pairs of a sample always fit, more are needed to tell it from chance
+        if (bestCount < Math.min(n, 5)) {
+            System.out.println("NO HOMOGRAPHY FOUND!");
+            return null;
+        }
+
+        // least squares over the inliers, once more if the refit gathers new ones
+        inliers = new boolean[n];
+        inlierCount = mark(best, t2);
+        for (int pass = 0; pass < 2; pass++) {
+            if (!solveInliers())
+                break;
+            System.arraycopy(h, 0, best, 0, 9);
+            int count = mark(best, t2);
+            if (count == inlierCount)
+                break;
+            inlierCount = count;
+        }
+        return denormalize(best, srcT, dstT);
+    }
+
+    // inliers of the last estimate, in the order of the points
+    public boolean[] getInliers() {
+        return inliers;
+    }
+
+    public int getInlierCount() {
+        return inlierCount;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    // Samples needed to draw 4 inliers at once with the confidence, at the inlier ratio
+    private long iterationsFor(int count, int n) {
+        double all = Math.pow((double) count / n, 4);
+        if (all >= 1)
+            return 1;
+        if (all <= 0)
+            return maxIterations;
+        return (long) Math.ceil(Math.log(1 - confidence) / Math.log(1 - all));
+    }
+
+    // 4 different correspondences among order[0 .. size - 1] into sample, with order[fixed]
+    // among them unless fixed is -1
+    private void draw(int[] order, int size, int fixed) {
+        int k = 0;
+        if (fixed >= 0)
+            sample[k++] = order[fixed];
+        int range = fixed >= 0 ? fixed : size;
+        while (k < 4) {
+            int candidate = order[random.nextInt(range)];
+            boolean taken = false;
+            for (int j = 0; j < k; j++) {
+                taken |= sample[j] == candidate;
+            }
+            if (!taken)
+                sample[k++] = candidate;
+        }
+    }
+
+    // three of the sampled points on a line give no homography
+    private boolean degenerate(double[] points) {
+        for (int i = 0; i < 4; i++) {
+            int p = 2 * sample[i], q = 2 * sample[(i + 1) % 4], r = 2 * sample[(i + 2) % 4];
+            double cross = (points[q] - points[p]) * (points[r + 1] - points[p + 1])
+                    - (points[q + 1] - points[p + 1]) * (points[r] - points[p]);
+            if (Math.abs(cross) < 1e-6)
+                return true;
+        }
+        return false;
+    }
+
+    // h through the 4 sampled correspondences
+    private boolean solveMinimal() {
+        for (int k = 0; k < 4; k++) {
+            int i = sample[k];
+            fillRows(i, 2 * k);
+        }
+        if (!solve(a, rhs, 8))
+            return false;
+        System.arraycopy(rhs, 0, h, 0, 8);
+        h[8] = 1;
+        return true;
+    }
+
+    // rows row and row + 1 of the system for correspondence i, into a and rhs
+    private void fillRows(int i, int row) {
+        double x = src[2 * i], y = src[2 * i + 1], u = dst[2 * i], v = dst[2 * i + 1];
+        int r = row * 8;
+        a[r] = x;
+        a[r + 1] = y;
+        a[r + 2] = 1;
+        a[r + 3] = 0;
+        a[r + 4] = 0;
+        a[r + 5] = 0;
+        a[r + 6] = -x * u;
+        a[r + 7] = -y * u;
+        a[r + 8] = 0;
+        a[r + 9] = 0;
+        a[r + 10] = 0;
+        a[r + 11] = x;
+        a[r + 12] = y;
+        a[r + 13] = 1;
+        a[r + 14] = -x * v;
+        a[r + 15] = -y * v;
+        rhs[row] = u;
+        rhs[row + 1] = v;
+    }
+
+    // normal equations of every inlier, solved for h
+    private boolean solveInliers() {
+        double[] normal = new double[64], right = new double[8];
+        double[] row = new double[8];
+        for (int i = 0; i < inliers.length; i++) {
+            if (!inliers[i])
+                continue;
+            double x = src[2 * i], y = src[2 * i + 1], u = dst[2 * i], v = dst[2 * i + 1];
+            for (int half = 0; half < 2; half++) {
+                double target = half == 0 ? u : v;
+                Arrays.fill(row, 0);
+                row[3 * half] = x;
+                row[3 * half + 1] = y;
+                row[3 * half + 2] = 1;
+                row[6] = -x * target;
+                row[7] = -y * target;
+                for (int j = 0; j < 8; j++) {
+                    if (row[j] == 0)
+                        continue;
+                    for (int k = 0; k < 8; k++) {
+                        normal[j * 8 + k] += row[j] * row[k];
+                    }
+                    right[j] += row[j] * target;
+                }
+            }
+        }
+        if (!solve(normal, right, 8))
+            return false;
+        System.arraycopy(right, 0, h, 0, 8);
+        h[8] = 1;
+        return true;
+    }
+
+    // correspondences that h maps within the threshold, giving up once it can not beat best
+    private int score(double t2, int best) {
+        int n = src.length / 2, count = 0;
+        for (int i = 0; i < n && count + (n - i) > best; i++) {
+            if (error(h, i) <= t2)
+                count++;
+        }
+        return count;
+    }
+
+    private int mark(double[] m, double t2) {
+        int count = 0;
+        for (int i = 0; i < inliers.length; i++) {
+            inliers[i] = error(m, i) <= t2;
+            if (inliers[i])
+                count++;
+        }
+        return count;
+    }
+
+    // squared distance from the mapped source point i to its destination
+    private double error(double[] m, int i) {
+        double x = src[2 * i], y = src[2 * i + 1];
+        double w = m[6] * x + m[7] * y + m[8];
+        if (w == 0)
+            return Double.MAX_VALUE;
+        double du = (m[0] * x + m[1] * y + m[2]) / w - dst[2 * i];
+        double dv = (m[3] * x + m[4] * y + m[5]) / w - dst[2 * i + 1];
+        return du * du + dv * dv;
+    }
+
+    // Solve the n x n system m x = b with partial pivoting, m row major and both
+    // overwritten, x into b, false when m is singular
+    static boolean solve(double[] m, double[] b, int n) {
+        double scale = 0;
+        for (int i = 0; i < n * n; i++) {
+            scale = Math.max(scale, Math.abs(m[i]));
+        }
+        if (scale == 0)
+            return false;
+        for (int i = 0; i < n; i++) {
+            int max = i;
+            for (int j = i + 1; j < n; j++) {
+                if (Math.abs(m[j * n + i]) > Math.abs(m[max * n + i]))
+                    max = j;
+            }
+            if (Math.abs(m[max * n + i]) < 1e-12 * scale)
+                return false;
+            if (max != i) {
+                for (int k = i; k < n; k++) {
+                    double swap = m[i * n + k];
+                    m[i * n + k] = m[max * n + k];
+                    m[max * n + k] = swap;
+                }
+                double swap = b[i];
+                b[i] = b[max];
+                b[max] = swap;
+            }
+            for (int j = i + 1; j < n; j++) {
+                double factor = m[j * n + i] / m[i * n + i];
+                if (factor == 0)
+                    continue;
+                for (int k = i; k < n; k++) {
+                    m[j * n + k] -= factor * m[i * n + k];
+                }
+                b[j] -= factor * b[i];
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= m[i * n + k] * b[k];
+            }
+            b[i] = sum / m[i * n + i];
+        }
+        return true;
+    }
+
+    // Points moved to centroid 0 and scaled to mean distance sqrt 2 into out, returns the
+    // centroid and the scale
+    private static double[] normalize(double[][] points, double[] out) {
+        int n = points.length;
+        double cx = 0, cy = 0;
+        for (double[] p : points) {
+            cx += p[0];
+            cy += p[1];
+        }
+        cx /= n;
+        cy /= n;
+        double distance = 0;
+        for (double[] p : points) {
+            distance += Math.hypot(p[0] - cx, p[1] - cy);
+        }
+        distance /= n;
+        double scale = distance > 0 ? Math.sqrt(2) / distance : 1;
+        for (int i = 0; i < n; i++) {
+            out[2 * i] = (points[i][0] - cx) * scale;
+            out[2 * i + 1] = (points[i][1] - cy) * scale;
+        }
+        return new double[] { cx, cy, scale };
+    }
+
+    // Td^-1 * m * Ts in pixels, with h33 = 1
+    private static double[] denormalize(double[] m, double[] srcT, double[] dstT) {
+        double[] ts = { srcT[2], 0, -srcT[2] * srcT[0], 0, srcT[2], -srcT[2] * srcT[1], 0, 0, 1 };
+        double[] tdInverse = { 1 / dstT[2], 0, dstT[0], 0, 1 / dstT[2], dstT[1], 0, 0, 1 };
+        double[] result = multiply(tdInverse, multiply(m, ts));
+        for (int i = 0; i < 9; i++) {
+            result[i] /= result[8];
+        }
+        return result;
+    }
+
+    private static double[] multiply(double[] p, double[] q) {
+        double[] r = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                r[i * 3 + j] = p[i * 3] * q[j] + p[i * 3 + 1] * q[3 + j] + p[i * 3 + 2] * q[6 + j];
+            }
+        }
+        return r;
+    }
+}
@@ -3,40 +3,44 @@ import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
-import java.awt.Color;
 
 class ImageManager {
     public int width;
     public int height;
     public int bitDepth;
 
-    private BufferedImage img;
-    private BufferedImage original;
+    private PixelRaster img;
+    private PixelRaster original;
+    private int type;
+    // point operations waiting for the next read of the pixels
+    private PointOperation pending;
+    // scratch of cannyEdgeDetector, kept for the next call
+    private byte[] cannyEdges;
+    private int[] cannyStack;
 
     public ImageManager() {
     }
 
     public boolean read(String fileName) {
         try {
-            img = ImageIO.read(new File(fileName));
-
-            width = img.getWidth();
-            height = img.getHeight();
-            bitDepth = img.getColorModel().getPixelSize();
+            BufferedImage loaded = ImageIO.read(new File(fileName));
+
+            width = loaded.getWidth();
+            height = loaded.getHeight();
+            bitDepth = loaded.getColorModel().getPixelSize();
+            type = loaded.getType();
+            img = new PixelRaster(loaded);
+            pending = null;
             System.out.println("Image " + fileName + " with " + width + " x " + height + " pixels (" + bitDepth
                     + " bitsper pixel) has been read!");
 
-            original = new BufferedImage(width, height, img.getType());
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    original.setRGB(x, y, img.getRGB(x, y));
-                }
-            }
+            original = img.copy();
             return true;
         } catch (IOException e) {
             System.out.println(e);
@@ -45,8 +49,9 @@ class ImageManager {
     }
 
     public boolean write(String fileName) {
+        applyPointOperations();
         try {
-            ImageIO.write(img, "bmp", new File(fileName));
+            ImageIO.write(img.toBufferedImage(type), "bmp", new File(fileName));
             System.out.println("Image " + fileName + " has been written!");
 
             return true;
@@ -61,54 +66,186 @@ class ImageManager {
     }
 
     public void restoreToOriginal() {
-        width = original.getWidth();
-        height = original.getHeight();
-        img = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, original.getRGB(x, y));
-            }
-        }
+        width = original.width;
+        height = original.height;
+        img = original.copy();
+        pending = null;
     }
 
+    // Point operations, convertToGrayscale, invert, thresholding, adjustContrast and the
+    // lookup tables below, only compose their tables into the pending PointOperation. The
+    // pixels are rewritten once, by the next method that reads them.
+
+    // The operations waiting so far, to add one to
+    private PointOperation pointOperation() {
+        if (pending == null)
+            pending = new PointOperation(img.mode);
+        return pending;
+    }
+
+    private void applyPointOperations() {
+        if (pending == null)
+            return;
+        PointOperation op = pending;
+        pending = null;
+        op.apply(img);
+    }
+
+    // For methods working on the gray pixels right away
+    private void grayscaleNow() {
+        applyPointOperations();
+        if (img.mode == PixelRaster.RGB)
+            img.toGray();
+    }
+
+    // Keeps one byte per pixel from now on, a binary image is already gray and stays binary
     public void convertToGrayscale() {
         if (img == null)
             return;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int r = (color >> 16) & 0xff;
-                int g = (color >> 8) & 0xff;
-                int b = color & 0xff;
-                int avg = (r + g + b) / 3;
-                int newColor = (avg << 16) | (avg << 8) | avg;
+        pointOperation().grayscale();
+    }
 
-                img.setRGB(x, y, newColor);
-            }
+    // Same table on every channel, or on the gray level of a gray image
+    public void applyLookupTable(int[] table) {
+        if (img == null)
+            return;
+        if (table.length != 256) {
+            System.out.println("INVALID TABLE!");
+            return;
         }
+        pointOperation().then(table);
     }
 
-    public void invert() {
+    // One table per channel, a gray image only uses the red one
+    public void applyLookupTables(int[] red, int[] green, int[] blue) {
         if (img == null)
             return;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int r = (color >> 16) & 0xff;
-                int g = (color >> 8) & 0xff;
-                int b = color & 0xff;
-                r = 255 - r;
-                g = 255 - g;
-                b = 255 - b;
-                color = (r << 16) | (g << 8) | b;
-                img.setRGB(x, y, color);
+        if (red.length != 256 || green.length != 256 || blue.length != 256) {
+            System.out.println("INVALID TABLE!");
+            return;
+        }
+        pointOperation().then(red, green, blue);
+    }
+
+    // v' = 255 (v / 255)^gamma on every channel
+    public void gammaCorrection(double gamma) {
+        if (img == null)
+            return;
+        if (gamma <= 0) {
+            System.out.println("INVALID GAMMA!");
+            return;
+        }
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = (int) Math.round(255 * Math.pow(v / 255.0, gamma));
+        }
+        pointOperation().then(table);
+    }
+
+    // Spread the gray levels of the grayscale image so their cumulative histogram is linear
+    public void histogramEqualization() {
+        if (img == null)
+            return;
+        convertToGrayscale();
+        int[] histogram = getGrayscaleHistogram();
+        pointOperation().then(equalization(histogram, width * height));
+    }
+
+    // Table sending every level to its place in the cumulative histogram, the first level in
+    // use going to 0 and the last to 255
+    private static int[] equalization(int[] histogram, int pixelNum) {
+        int[] table = new int[256];
+        int cdfMin = 0;
+        for (int v = 0; v < 256 && cdfMin == 0; v++) {
+            cdfMin = histogram[v];
+        }
+        int cdf = 0;
+        for (int v = 0; v < 256; v++) {
+            cdf += histogram[v];
+            table[v] = pixelNum == cdfMin ? v
+                    : (int) Math.round((double) Math.max(cdf - cdfMin, 0) * 255 / (pixelNum - cdfMin));
+        }
+        return table;
+    }
+
+    // Contrast limited adaptive histogram equalization of the grayscale image
+    // Every one of the tiles x tiles tiles gets the equalization table of its own histogram,
+    // clipped at clipLimit times the average bin count with the excess spread over all bins,
+    // and every pixel blends the tables of the four tiles around it bilinearly.
+    public void clahe(int tiles, double clipLimit) {
+        if (img == null)
+            return;
+        if (tiles < 1 || tiles > Math.min(width, height) || clipLimit < 1) {
+            System.out.println("INVALID CLAHE PARAMETERS!");
+            return;
+        }
+        grayscaleNow();
+        int[] plane = img.grayPlane();
+        int[][] tables = new int[tiles * tiles][];
+        for (int ty = 0; ty < tiles; ty++) {
+            for (int tx = 0; tx < tiles; tx++) {
+                int x0 = tx * width / tiles, x1 = (tx + 1) * width / tiles;
+                int y0 = ty * height / tiles, y1 = (ty + 1) * height / tiles;
+                int[] histogram = new int[256];
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        histogram[plane[y * width + x]]++;
+                    }
+                }
+                int pixelNum = (x1 - x0) * (y1 - y0);
+                int limit = Math.max(1, (int) (clipLimit * pixelNum / 256));
+                int excess = 0;
+                for (int v = 0; v < 256; v++) {
+                    if (histogram[v] > limit) {
+                        excess += histogram[v] - limit;
+                        histogram[v] = limit;
+                    }
+                }
+                for (int v = 0; v < 256; v++) {
+                    histogram[v] += excess / 256 + (v < excess % 256 ? 1 : 0);
+                }
+                int[] table = new int[256];
+                int cdf = 0;
+                for (int v = 0; v < 256; v++) {
+                    cdf += histogram[v];
+                    table[v] = (int) Math.round((double) cdf * 255 / pixelNum);
+                }
+                tables[ty * tiles + tx] = table;
             }
         }
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            // position between the tile centres
+            double fy = (y + 0.5) * tiles / height - 0.5;
+            int ty0 = (int) Math.floor(fy);
+            double wy = fy - ty0;
+            int ty1 = Math.min(ty0 + 1, tiles - 1);
+            ty0 = Math.max(ty0, 0);
+            for (int x = 0; x < width; x++) {
+                double fx = (x + 0.5) * tiles / width - 0.5;
+                int tx0 = (int) Math.floor(fx);
+                double wx = fx - tx0;
+                int tx1 = Math.min(tx0 + 1, tiles - 1);
+                tx0 = Math.max(tx0, 0);
+                int v = plane[y * width + x];
+                double top = (1 - wx) * tables[ty0 * tiles + tx0][v] + wx * tables[ty0 * tiles + tx1][v];
+                double bottom = (1 - wx) * tables[ty1 * tiles + tx0][v] + wx * tables[ty1 * tiles + tx1][v];
+                result[y * width + x] = (int) Math.round((1 - wy) * top + wy * bottom);
+            }
+        }
+        img.setPlanes(new int[][] { result });
+    }
+
+    public void invert() {
+        if (img == null)
+            return;
+        pointOperation().invert();
     }
 
     public void addSaltNoise(double percent) {
         if (img == null)
             return;
+        applyPointOperations();
         double noOfPX = height * width;
         int noiseAdded = (int) (percent * noOfPX);
         Random rnd = new Random();
@@ -123,6 +260,7 @@ class ImageManager {
     public void addPepperNoise(double percent) {
         if (img == null)
             return;
+        applyPointOperations();
         double noOfPX = height * width;
         int noiseAdded = (int) (percent * noOfPX);
         Random rnd = new Random();
@@ -142,70 +280,97 @@ class ImageManager {
     public void addUniformNoise(double percent, int distribution) {
         if (img == null)
             return;
+        applyPointOperations();
         double noOfPX = height * width;
         int noiseAdded = (int) (percent * noOfPX);
         Random rnd = new Random();
         for (int i = 1; i <= noiseAdded; i++) {
             int x = rnd.nextInt(width);
             int y = rnd.nextInt(height);
-            int color = img.getRGB(x, y);
-            int gray = color & 0xff;
+            int gray = img.getGray(x, y);
             gray += (rnd.nextInt(distribution * 2) - distribution);
             gray = gray > 255 ? 255 : gray;
             gray = gray < 0 ? 0 : gray;
-            int newColor = gray << 16 | gray << 8 | gray;
-            img.setRGB(x, y, newColor);
+            img.setRGB(x, y, gray << 16 | gray << 8 | gray);
         }
     }
 
     public void contraharmonicFilter(int size, double Q) {
         if (img == null)
             return;
+        applyPointOperations();
         if (size % 2 == 0) {
             System.out.println("Size Invalid: must be odd number!");
             return;
         }
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double sumRedAbove = 0, sumGreenAbove = 0, sumBlueAbove = 0;
-                double sumRedBelow = 0, sumGreenBelow = 0, sumBlueBelow = 0;
-                for (int i = y - size / 2; i <= y + size / 2; i++) {
-                    for (int j = x - size / 2; j <= x + size / 2; j++) {
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            int color = img.getRGB(j, i);
-                            int r = (color >> 16) & 0xff;
-                            int g = (color >> 8) & 0xff;
-                            int b = color & 0xff;
-                            sumRedAbove += Math.pow(r, Q + 1);
-                            sumGreenAbove += Math.pow(g, Q + 1);
-                            sumBlueAbove += Math.pow(b, Q + 1);
-                            sumRedBelow += Math.pow(r, Q);
-                            sumGreenBelow += Math.pow(g, Q);
-                            sumBlueBelow += Math.pow(b, Q);
-                        }
+        // each channel on its own, a gray image has only one
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            planes[c] = contraharmonicPlane(planes[c], size, Q);
+        }
+        img.setPlanes(planes);
+    }
+
+    private int[] contraharmonicPlane(int[] src, int size, double Q) {
+        // v^(Q+1) and v^Q for every gray level
+        double[] powAbove = new double[256];
+        double[] powBelow = new double[256];
+        for (int v = 0; v < 256; v++) {
+            powAbove[v] = Math.pow(v, Q + 1);
+            powBelow[v] = Math.pow(v, Q);
+        }
+        // 0^Q is infinite for a negative Q and any zero in the window makes the result 0,
+        // so zeros are counted instead of summed
+        boolean countZeros = Q < 0;
+        if (countZeros) {
+            powAbove[0] = 0;
+            powBelow[0] = 0;
+        }
+        int half = size / 2;
+        int[] tempBuf = new int[width * height];
+        TileExecutor.rows(height, half, (from, to) -> {
+            double[] columnAbove = new double[width];
+            double[] columnBelow = new double[width];
+            int[] columnZeros = new int[width];
+            for (int y = from; y < to; y++) {
+                // sums of the window rows for every column, rebuilt per row rather than updated
+                // by subtracting the row that leaves, v^Q spans too many orders of magnitude for that
+                int iStart = Math.max(y - half, 0), iEnd = Math.min(y + half, height - 1);
+                Arrays.fill(columnAbove, 0);
+                Arrays.fill(columnBelow, 0);
+                Arrays.fill(columnZeros, 0);
+                for (int i = iStart; i <= iEnd; i++) {
+                    int row = i * width;
+                    for (int x = 0; x < width; x++) {
+                        int value = src[row + x];
+                        columnAbove[x] += powAbove[value];
+                        columnBelow[x] += powBelow[value];
+                        if (value == 0)
+                            columnZeros[x]++;
                     }
                 }
-                sumRedAbove /= sumRedBelow;
-                sumRedAbove = sumRedAbove > 255 ? 255 : sumRedAbove;
-                sumRedAbove = sumRedAbove < 0 ? 0 : sumRedAbove;
-                sumGreenAbove /= sumGreenBelow;
-                sumGreenAbove = sumGreenAbove > 255 ? 255 : sumGreenAbove;
-                sumGreenAbove = sumGreenAbove < 0 ? 0 : sumGreenAbove;
-                sumBlueAbove /= sumBlueBelow;
-                sumBlueAbove = sumBlueAbove > 255 ? 255 : sumBlueAbove;
-                sumBlueAbove = sumBlueAbove < 0 ? 0 : sumBlueAbove;
-
-                int newColor = ((int) sumRedAbove << 16) | ((int) sumGreenAbove << 8) | (int) sumBlueAbove;
+                for (int x = 0; x < width; x++) {
+                    int jStart = Math.max(x - half, 0), jEnd = Math.min(x + half, width - 1);
+                    double sumAbove = 0, sumBelow = 0;
+                    int zeros = 0;
+                    for (int j = jStart; j <= jEnd; j++) {
+                        sumAbove += columnAbove[j];
+                        sumBelow += columnBelow[j];
+                        zeros += columnZeros[j];
+                    }
+                    if (countZeros && zeros > 0) {
+                        tempBuf[y * width + x] = 0;
+                        continue;
+                    }
+                    sumAbove /= sumBelow;
+                    sumAbove = sumAbove > 255 ? 255 : sumAbove;
+                    sumAbove = sumAbove < 0 ? 0 : sumAbove;
 
-                tempBuf.setRGB(x, y, newColor);
-            }
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
+                    tempBuf[y * width + x] = (int) sumAbove;
+                }
             }
-        }
+        });
+        return tempBuf;
     }
 
     public void alphaTrimmedFilter(int size, int d) {
@@ -215,94 +380,40 @@ class ImageManager {
             System.out.println("Size Invalid: must be odd number!");
             return;
         }
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] kernelRed = new int[size * size];
-                int[] kernelGreen = new int[size * size];
-                int[] kernelBlue = new int[size * size];
-                for (int i = y - size / 2; i <= y + size / 2; i++) {
-                    for (int j = x - size / 2; j <= x + size / 2; j++) {
-                        int r, g, b;
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            int color = img.getRGB(j, i);
-                            r = (color >> 16) & 0xff;
-                            g = (color >> 8) & 0xff;
-                            b = color & 0xff;
-                            kernelRed[(i - (y - size / 2)) * size + (j - (x - size / 2))] = r;
-                            kernelGreen[(i - (y - size / 2)) * size + (j - (x - size / 2))] = g;
-                            kernelBlue[(i - (y - size / 2)) * size + (j - (x - size / 2))] = b;
-                        }
-                    }
-                }
-                for (int i = 0; i < size * size - 1; i++) {
-                    for (int j = 0; j < size * size - i - 1; j++) {
-                        int temp;
-                        if (kernelRed[j] > kernelRed[j + 1]) {
-                            temp = kernelRed[j];
-                            kernelRed[j] = kernelRed[j + 1];
-                            kernelRed[j + 1] = temp;
-                        }
-                        if (kernelGreen[j] > kernelGreen[j + 1]) {
-                            temp = kernelGreen[j];
-                            kernelGreen[j] = kernelGreen[j + 1];
-                            kernelGreen[j + 1] = temp;
-                        }
-                        if (kernelBlue[j] > kernelBlue[j + 1]) {
-                            temp = kernelBlue[j];
-                            kernelBlue[j] = kernelBlue[j + 1];
-                            kernelBlue[j + 1] = temp;
-                        }
-                    }
-                }
-                int remainingPixel = size * size - d;
-                int red = 0, green = 0, blue = 0;
-                for (int i = 0; i < remainingPixel; i++) {
-                    red += kernelRed[(d / 2) + i];
-                    green += kernelGreen[(d / 2) + i];
-                    blue += kernelBlue[(d / 2) + i];
-                }
-
-                red /= remainingPixel;
-                red = red > 255 ? 255 : red;
-                red = red < 0 ? 0 : red;
-                green /= remainingPixel;
-                green = green > 255 ? 255 : green;
-                green = green < 0 ? 0 : green;
-                blue /= remainingPixel;
-                blue = blue > 255 ? 255 : blue;
-                blue = blue < 0 ? 0 : blue;
-                int newColor = (red << 16) | (green << 8) | blue;
-                tempBuf.setRGB(x, y, newColor);
-            }
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
+        if (d < 0 || d >= size * size) {
+            System.out.println("INVALID d!");
+            return;
         }
+        // mean of the window without its d / 2 lowest and d - d / 2 highest values,
+        // out of image neighbours count as 0
+        int remainingPixel = size * size - d;
+        orderStatisticFilter(size, true, 0, window -> {
+            int sum = (int) window.sumOfRanks(d / 2, d / 2 + remainingPixel);
+            sum /= remainingPixel;
+            sum = sum > 255 ? 255 : sum;
+            sum = sum < 0 ? 0 : sum;
+            return sum;
+        });
     }
 
+    // Histogram of the grayscale image, the image itself is left as it is
     public int[] getGrayscaleHistogram() {
         if (img == null)
             return null;
-        convertToGrayscale();
-        int[] histogram = new int[256];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int gray = color & 0xff;
-                histogram[gray]++;
-            }
-        }
-        restoreToOriginal();
-        return histogram;
+        if (pending != null) {
+            // pushed through the pending tables when they allow it
+            int[] histogram = pending.histogram(img);
+            if (histogram != null)
+                return histogram;
+            applyPointOperations();
+        }
+        return img.luminanceHistogram();
     }
 
+    // Standard deviation of the gray levels, from the histogram
     public float getContrast() {
         if (img == null)
             return 0;
-        float contrast = 0;
         int[] histogram = getGrayscaleHistogram();
         float avgIntensity = 0;
         float pixelNum = width * height;
@@ -310,15 +421,11 @@ class ImageManager {
             avgIntensity += histogram[i] * i;
         }
         avgIntensity /= pixelNum;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int value = color & 0xff;
-                contrast += Math.pow((value) - avgIntensity, 2);
-            }
+        double contrast = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            contrast += histogram[i] * Math.pow(i - avgIntensity, 2);
         }
-        contrast = (float) Math.sqrt(contrast / pixelNum);
-        return contrast;
+        return (float) Math.sqrt(contrast / pixelNum);
     }
 
     // Quest 4
@@ -347,33 +454,23 @@ class ImageManager {
             newMin = temp;
         }
         float contrastFactor = (newMax - newMin) / (max - min);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int r = (color >> 16) & 0xff;
-                int g = (color >> 8) & 0xff;
-                int b = color & 0xff;
-                r = (int) ((r - min) * contrastFactor + newMin);
-                r = r > 255 ? 255 : r;
-                r = r < 0 ? 0 : r;
-                g = (int) ((g - min) * contrastFactor + newMin);
-                g = g > 255 ? 255 : g;
-                g = g < 0 ? 0 : g;
-                b = (int) ((b - min) * contrastFactor + newMin);
-                b = b > 255 ? 255 : b;
-                b = b < 0 ? 0 : b;
-                color = (r << 16) | (g << 8) | b;
-                img.setRGB(x, y, color);
-            }
-        }
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            int value = (int) ((v - min) * contrastFactor + newMin);
+            value = value > 255 ? 255 : value;
+            value = value < 0 ? 0 : value;
+            table[v] = value;
+        }
+        pointOperation().then(table);
     }
 
     public void resizeNearestNeighbour(double scaleX, double scaleY) {
         if (img == null)
             return;
+        applyPointOperations();
         int newWidth = (int) Math.round(width * scaleX);
         int newHeight = (int) Math.round(height * scaleY);
-        BufferedImage tempBuf = new BufferedImage(newWidth, newHeight, img.getType());
+        int[] source = new int[newWidth * newHeight];
         for (int y = 0; y < newHeight; y++) {
             for (int x = 0; x < newWidth; x++) {
                 int xNearest = (int) Math.round(x / scaleX);
@@ -382,25 +479,32 @@ class ImageManager {
                 xNearest = xNearest < 0 ? 0 : xNearest;
                 yNearest = yNearest >= height ? height - 1 : yNearest;
                 yNearest = yNearest < 0 ? 0 : yNearest;
-                tempBuf.setRGB(x, y, img.getRGB(xNearest, yNearest));
+                source[y * newWidth + x] = yNearest * width + xNearest;
             }
         }
-        img = new BufferedImage(newWidth, newHeight, img.getType());
+        img = img.gather(newWidth, newHeight, source);
         width = newWidth;
         height = newHeight;
-        for (int y = 0; y < newHeight; y++) {
-            for (int x = 0; x < newWidth; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
-        }
     }
 
     public void resizeBilinear(double scaleX, double scaleY) {
         if (img == null)
             return;
+        applyPointOperations();
         int newWidth = (int) Math.round(width * scaleX);
         int newHeight = (int) Math.round(height * scaleY);
-        BufferedImage tempBuf = new BufferedImage(newWidth, newHeight, img.getType());
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            planes[c] = bilinearPlane(planes[c], newWidth, newHeight, scaleX, scaleY);
+        }
+        img = new PixelRaster(newWidth, newHeight);
+        img.setPlanes(planes);
+        width = newWidth;
+        height = newHeight;
+    }
+
+    private int[] bilinearPlane(int[] src, int newWidth, int newHeight, double scaleX, double scaleY) {
+        int[] tempBuf = new int[newWidth * newHeight];
         for (int y = 0; y < newHeight; y++) {
             for (int x = 0; x < newWidth; x++) {
                 double oldX = x / scaleX;
@@ -411,215 +515,456 @@ class ImageManager {
                 int x2 = Math.min((int) Math.ceil(oldX), width - 1);
                 int y2 = Math.min((int) Math.ceil(oldY), height - 1);
                 // get colours
-                int color11 = img.getRGB(x1, y1);
-                int r11 = (color11 >> 16) & 0xff;
-                int g11 = (color11 >> 8) & 0xff;
-                int b11 = color11 & 0xff;
-
-                int color12 = img.getRGB(x1, y2);
-                int r12 = (color12 >> 16) & 0xff;
-                int g12 = (color12 >> 8) & 0xff;
-                int b12 = color12 & 0xff;
-
-                int color21 = img.getRGB(x2, y1);
-                int r21 = (color21 >> 16) & 0xff;
-                int g21 = (color21 >> 8) & 0xff;
-                int b21 = color21 & 0xff;
-
-                int color22 = img.getRGB(x2, y2);
-                int r22 = (color22 >> 16) & 0xff;
-                int g22 = (color22 >> 8) & 0xff;
-                int b22 = color22 & 0xff;
+                int v11 = src[y1 * width + x1];
+                int v12 = src[y2 * width + x1];
+                int v21 = src[y1 * width + x2];
+                int v22 = src[y2 * width + x2];
                 // interpolate x
-                double P1r = (x2 - oldX) * r11 + (oldX - x1) * r21;
-                double P1g = (x2 - oldX) * g11 + (oldX - x1) * g21;
-                double P1b = (x2 - oldX) * b11 + (oldX - x1) * b21;
-                double P2r = (x2 - oldX) * r12 + (oldX - x1) * r22;
-                double P2g = (x2 - oldX) * g12 + (oldX - x1) * g22;
-                double P2b = (x2 - oldX) * b12 + (oldX - x1) * b22;
+                double P1 = (x2 - oldX) * v11 + (oldX - x1) * v21;
+                double P2 = (x2 - oldX) * v12 + (oldX - x1) * v22;
                 if (x1 == x2) {
-                    P1r = r11;
-                    P1g = g11;
-                    P1b = b11;
-                    P2r = r22;
-                    P2g = g22;
-                    P2b = b22;
+                    P1 = v11;
+                    P2 = v22;
                 }
                 // interpolate y
-                double Pr = (y2 - oldY) * P1r + (oldY - y1) * P2r;
-                double Pg = (y2 - oldY) * P1g + (oldY - y1) * P2g;
-                double Pb = (y2 - oldY) * P1b + (oldY - y1) * P2b;
+                double P = (y2 - oldY) * P1 + (oldY - y1) * P2;
                 if (y1 == y2) {
-                    Pr = P1r;
-                    Pg = P1g;
-                    Pb = P1b;
+                    P = P1;
                 }
-                int r = (int) Math.round(Pr);
-                int g = (int) Math.round(Pg);
-                int b = (int) Math.round(Pb);
-                r = r > 255 ? 255 : r;
-                r = r < 0 ? 0 : r;
-                g = g > 255 ? 255 : g;
-                g = g < 0 ? 0 : g;
-                b = b > 255 ? 255 : b;
-                b = b < 0 ? 0 : b;
-                int newColor = (r << 16) | (g << 8) | b;
-                tempBuf.setRGB(x, y, newColor);
-            }
-        }
-        img = new BufferedImage(newWidth, newHeight, img.getType());
-        width = newWidth;
-        height = newHeight;
-        for (int y = 0; y < newHeight; y++) {
-            for (int x = 0; x < newWidth; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
+                int value = (int) Math.round(P);
+                value = value > 255 ? 255 : value;
+                value = value < 0 ? 0 : value;
+                tempBuf[y * newWidth + x] = value;
             }
         }
+        return tempBuf;
     }
 
     public void erosion(StructuringElement se) {
         if (img == null)
             return;
-        convertToGrayscale();
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                boolean isEroded = true;
-                int min = Integer.MAX_VALUE;
-                se_check: for (int i = y - se.origin.y; i < y + se.height - se.origin.y; i++) {
-                    for (int j = x - se.origin.x; j < x + se.width - se.origin.x; j++) {
-                        int seCurrentX = j - (x - se.origin.x);
-                        int seCurrentY = i - (y - se.origin.y);
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            if (!se.ignoreElements.contains(new Point(seCurrentX, seCurrentY))) {
-                                int color = img.getRGB(j, i);
-                                int gray = color & 0xff;
-                                if (se.elements[seCurrentX][seCurrentY] != gray) {
-                                    isEroded = false;
-                                    break se_check;
-                                } else if (min > gray)
-                                    min = gray;
-                            }
-                        } else {
-                            isEroded = false;
-                            break se_check;
-                        }
-                    }
-                }
-                int newGray = 0;
-                if (isEroded) {
-                    newGray = min;
-                }
-                int newColor = (newGray << 16) | (newGray << 8) | newGray;
-                tempBuf.setRGB(x, y, newColor);
-            }
+        grayscaleNow();
+        packTwoLevel();
+        if (img.mode == PixelRaster.BINARY) {
+            erosionBinary(se);
+            return;
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
+        int[] pixels = img.grayPlane();
+        // a pixel keeps the smallest element value when every element matches the pixel under
+        // it, which all of them are equal to
+        Morphology m = new Morphology(se);
+        boolean[] fit = m.fits(pixels, width, height);
+        int[] tempBuf = new int[width * height];
+        for (int i = 0; i < tempBuf.length; i++) {
+            if (fit[i])
+                tempBuf[i] = m.minValue;
+        }
+        img.setPlanes(new int[][] { tempBuf });
+    }
+
+    // Erosion of a binary image 64 pixels at a time, a pixel stays white when every
+    // element of the SE is white and covers a white pixel inside the image
+    private void erosionBinary(StructuringElement se) {
+        long[] src = img.bits;
+        int words = img.words;
+        long[] out = new long[src.length];
+        Morphology m = new Morphology(se);
+        for (int value : m.value) {
+            if (value != 255) {
+                // a black element would need a black pixel, whose minimum is black anyway
+                img.bits = out;
+                return;
             }
         }
+        // the whole SE window has to be inside the image
+        int yStart = se.origin.y, yEnd = height - (se.height - se.origin.y - 1);
+        long[] inside = new long[words];
+        PixelRaster.fillBits(inside, 0, se.origin.x, width - (se.width - se.origin.x - 1), true);
+        TileExecutor.rows(height, Math.max(m.up, m.down), (from, to) -> {
+            for (int y = Math.max(from, yStart); y < Math.min(to, yEnd); y++) {
+                int row = y * words;
+                for (int k = 0; k < words; k++) {
+                    long acc = inside[k];
+                    for (int n = 0; n < m.dx.length && acc != 0; n++) {
+                        acc &= PixelRaster.wordAt(src, (y + m.dy[n]) * words, words, (k << 6) + m.dx[n]);
+                    }
+                    out[row + k] = acc;
+                }
+            }
+        });
+        img.bits = out;
     }
 
     public void dilation(StructuringElement se) {
         if (img == null)
             return;
-        convertToGrayscale();
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                boolean isDilated = false;
-                se_check: for (int i = y - (se.height - se.origin.y - 1); i < y + se.height -
-                        (se.height - se.origin.y - 1); i++) {
-                    for (int j = x - (se.width - se.origin.x - 1); j < x + se.width -
-                            (se.width - se.origin.x - 1); j++) {
-                        int seCurrentX = se.width - (j - x + se.origin.x) - 1;
-                        int seCurrentY = se.height - (i - y + se.origin.y) - 1;
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            if (!se.ignoreElements.contains(new Point(seCurrentX, seCurrentY))) {
-                                int color = img.getRGB(j, i);
-                                int gray = color & 0xff;
-                                if (se.elements[seCurrentX][seCurrentY] == gray) {
-                                    isDilated = true;
-                                    break se_check;
-                                }
-                            }
-                        } else {
-                            isDilated = false;
-                            break se_check;
+        grayscaleNow();
+        packTwoLevel();
+        if (img.mode == PixelRaster.BINARY) {
+            dilationBinary(se);
+            return;
+        }
+        int[] pixels = img.grayPlane();
+        // where the reflected SE fits inside the image, a pixel hit by some element takes the
+        // max of its window, the border goes through dilationAt
+        Morphology m = new Morphology(se);
+        boolean[] hit = m.hits(pixels, width, height);
+        int[] max = Morphology.windowMax(pixels, width, height, -m.right, m.left, -m.down, m.up);
+        int[] tempBuf = new int[width * height];
+        TileExecutor.rows(height, Math.max(m.up, m.down), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    if (y >= m.down && y < height - m.up && x >= m.right && x < width - m.left)
+                        tempBuf[i] = hit[i] ? max[i] : 0;
+                    else
+                        tempBuf[i] = Math.max(dilationAt(se, m, x, y), 0);
+                }
+            }
+        });
+        img.setPlanes(new int[][] { tempBuf });
+    }
+
+    // Dilation of a binary image 64 pixels at a time where the reflected SE fits
+    // inside the image, pixels near the border go through dilationAt
+    private void dilationBinary(StructuringElement se) {
+        long[] src = img.bits;
+        long[] inv = img.invertedBits();
+        int words = img.words;
+        long[] out = new long[src.length];
+        Morphology m = new Morphology(se);
+        ArrayList<int[]> hits = new ArrayList<>();
+        ArrayList<int[]> window = new ArrayList<>();
+        for (int dy = -m.down; dy <= m.up; dy++) {
+            for (int dx = -m.right; dx <= m.left; dx++) {
+                window.add(new int[] { dx, dy });
+            }
+        }
+        for (int n = 0; n < m.dx.length; n++) {
+            // third value tells whether the element looks for a white or a black pixel
+            if (m.value[n] == 255)
+                hits.add(new int[] { -m.dx[n], -m.dy[n], 1 });
+            else if (m.value[n] == 0)
+                hits.add(new int[] { -m.dx[n], -m.dy[n], 0 });
+        }
+        int xStart = m.right, xEnd = width - m.left;
+        int yStart = m.down, yEnd = height - m.up;
+        long[] inside = new long[words];
+        PixelRaster.fillBits(inside, 0, xStart, xEnd, true);
+        TileExecutor.rows(height, Math.max(m.up, m.down), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * words;
+                boolean borderRow = y < yStart || y >= yEnd;
+                if (!borderRow) {
+                    for (int k = 0; k < words; k++) {
+                        long hit = 0, anyWhite = 0;
+                        for (int[] d : hits) {
+                            hit |= PixelRaster.wordAt(d[2] == 1 ? src : inv, (y + d[1]) * words, words, (k << 6) + d[0]);
+                        }
+                        for (int[] d : window) {
+                            anyWhite |= PixelRaster.wordAt(src, (y + d[1]) * words, words, (k << 6) + d[0]);
                         }
+                        out[row + k] = hit & anyWhite & inside[k];
                     }
                 }
-                if (isDilated) {
+                for (int x = 0; x < width; x++) {
+                    if (!borderRow && x >= xStart && x < xEnd) {
+                        x = xEnd - 1;
+                        continue;
+                    }
+                    if (dilationAt(se, m, x, y) == 255)
+                        out[row + (x >> 6)] |= 1L << x;
+                }
+            }
+        });
+        img.bits = out;
+    }
+
+    // Gray dilation of one pixel, -1 when the SE does not hit it
+    private int dilationAt(StructuringElement se, Morphology m, int x, int y) {
+        for (int i = y - m.down; i <= y + m.up; i++) {
+            for (int j = x - m.right; j <= x + m.left; j++) {
+                int seCurrentX = m.left - (j - x);
+                int seCurrentY = m.up - (i - y);
+                if (i < 0 || i >= height || j < 0 || j >= width)
+                    return -1;
+                if (m.uses(seCurrentX, seCurrentY) && se.elements[seCurrentX][seCurrentY] == img.getGray(j, i)) {
                     int max = Integer.MIN_VALUE;
-                    for (int i = y - (se.height - se.origin.y - 1); i < y + se.height -
-                            (se.height - se.origin.y - 1); i++) {
-                        for (int j = x - (se.width - se.origin.x - 1); j < x + se.width
-                                - (se.width - se.origin.x - 1); j++) {
-                            if (i >= 0 && i < height && j >= 0 && j < width) {
-                                int color = img.getRGB(j, i);
-                                int gray = color & 0xff;
-                                if (max < gray)
-                                    max = gray;
-                            }
+                    for (int a = Math.max(y - m.down, 0); a <= Math.min(y + m.up, height - 1); a++) {
+                        for (int b = Math.max(x - m.right, 0); b <= Math.min(x + m.left, width - 1); b++) {
+                            max = Math.max(max, img.getGray(b, a));
                         }
                     }
-                    int newGray = max;
-                    int newColor = (newGray << 16) | (newGray << 8) | newGray;
-                    tempBuf.setRGB(x, y, newColor);
+                    return max;
                 }
             }
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
-        }
+        return -1;
     }
 
     public void BoundaryExtraction(StructuringElement se) {
-        BufferedImage newImg = new BufferedImage(width, height, img.getType());
+        applyPointOperations();
+        int[] newImg = new int[width * height];
 
         erosion(se);
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int color = img.getRGB(j, i) & 0xff;
-                int colorOriginal = original.getRGB(j, i) & 0xff;
-                int gray = colorOriginal - color >= 0 ? colorOriginal - color : 0;
-                int newColor = (gray << 16) | (gray << 8) | gray;
-                newImg.setRGB(j, i, newColor);
-            }
+        if (img.mode == PixelRaster.BINARY && original.isTwoLevel()) {
+            // white where the original is white and the erosion is not
+            PixelRaster originalBinary = original.copy();
+            originalBinary.toBinary(128);
+            long[] boundary = new long[img.bits.length];
+            for (int i = 0; i < boundary.length; i++) {
+                boundary[i] = originalBinary.bits[i] & ~img.bits[i];
+            }
+            img.bits = boundary;
+            return;
+        }
+        int[] eroded = img.grayPlane();
+        int[] originalGray = original.grayPlane();
+        for (int i = 0; i < newImg.length; i++) {
+            int color = eroded[i];
+            int colorOriginal = originalGray[i];
+            newImg[i] = colorOriginal - color >= 0 ? colorOriginal - color : 0;
         }
-        img = newImg;
+        img.setPlanes(new int[][] { newImg });
     }
 
-    public void thresholding(int threshold) {
+    // Flat morphology: the SE only gives a shape, every element that is not ignored takes
+    // part whatever its value, and pixels outside of the image are left out of the min and max
+
+    public void opening(StructuringElement se) {
         if (img == null)
             return;
-        convertToGrayscale();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int gray = color & 0xff;
-                gray = gray < threshold ? 0 : 255;
-                color = (gray << 16) | (gray << 8) | gray;
-                img.setRGB(x, y, color);
+        grayscaleNow();
+        Morphology m = new Morphology(se);
+        setMorphologyResult(m.dilate(m.erode(img.grayPlane(), width, height), width, height));
+    }
+
+    public void closing(StructuringElement se) {
+        if (img == null)
+            return;
+        grayscaleNow();
+        Morphology m = new Morphology(se);
+        setMorphologyResult(m.erode(m.dilate(img.grayPlane(), width, height), width, height));
+    }
+
+    // bright details smaller than the SE, the image minus its opening
+    public void topHat(StructuringElement se) {
+        if (img == null)
+            return;
+        grayscaleNow();
+        Morphology m = new Morphology(se);
+        int[] pixels = img.grayPlane();
+        int[] opened = m.dilate(m.erode(pixels, width, height), width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            opened[i] = pixels[i] - opened[i];
+        }
+        setMorphologyResult(opened);
+    }
+
+    // dark details smaller than the SE, the closing minus the image
+    public void blackTopHat(StructuringElement se) {
+        if (img == null)
+            return;
+        grayscaleNow();
+        Morphology m = new Morphology(se);
+        int[] pixels = img.grayPlane();
+        int[] closed = m.erode(m.dilate(pixels, width, height), width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            closed[i] -= pixels[i];
+        }
+        setMorphologyResult(closed);
+    }
+
+    // dilation minus erosion
+    public void morphologicalGradient(StructuringElement se) {
+        if (img == null)
+            return;
+        grayscaleNow();
+        Morphology m = new Morphology(se);
+        int[] pixels = img.grayPlane();
+        int[] dilated = m.dilate(pixels, width, height);
+        int[] eroded = m.erode(pixels, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            dilated[i] -= eroded[i];
+        }
+        setMorphologyResult(dilated);
+    }
+
+    // the min and max of black and white pixels, and their differences, are black or white
+    private void setMorphologyResult(int[] plane) {
+        boolean wasBinary = img.mode == PixelRaster.BINARY;
+        img.setPlanes(new int[][] { plane });
+        if (wasBinary)
+            img.toBinary(128);
+    }
+
+    // A gray image holding only black and white goes to the packed binary form, where
+    // morphology handles 64 pixels at a time
+    private void packTwoLevel() {
+        if (img.mode == PixelRaster.GRAY && img.isTwoLevel())
+            img.toBinary(128);
+    }
+
+    // Binary morphology below works on the packed bits, a gray image is thresholded at 128
+    // first. Objects are the black pixels, as for detectRegions, and pixels outside of the
+    // image count as the white background.
+
+    // A pixel stays white when every white element of the SE covers a white pixel and every
+    // black element a black one, other elements do not matter
+    public void hitOrMiss(StructuringElement se) {
+        if (img == null)
+            return;
+        grayscaleNow();
+        img.toBinary(128);
+        img.bits = hitOrMissBits(img.invertedBits(), new Morphology(se));
+    }
+
+    // Peel the black objects with the eight Golay elements until only their one pixel wide,
+    // still connected skeleton is left
+    public void thinning() {
+        if (img == null)
+            return;
+        grayscaleNow();
+        img.toBinary(128);
+        Morphology[] golay = golayElements();
+        long[] black = img.invertedBits();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Morphology m : golay) {
+                long[] match = hitOrMissBits(black, m);
+                for (int i = 0; i < black.length; i++) {
+                    if ((black[i] & match[i]) != 0) {
+                        black[i] &= ~match[i];
+                        changed = true;
+                    }
+                }
             }
         }
+        img.bits = img.invertedBits(black);
     }
 
-    public void otsuThreshold() {
+    // Fill the white holes of the black objects, the white pixels that can not be reached
+    // from the border of the image
+    public void fillHoles() {
         if (img == null)
             return;
-        convertToGrayscale();
-        int[] histogram = new int[256];
+        grayscaleNow();
+        img.toBinary(128);
+        int words = img.words;
+        // the run helpers of detectRegions work on any mask, here the white pixels
+        long[] white = img.bits;
+        long[] reached = new long[white.length];
+        int[] stack = new int[64];
+        int top = 0;
         for (int y = 0; y < height; y++) {
+            // every run of the first and last rows and the ends of every other row
+            boolean borderRow = y == 0 || y == height - 1;
             for (int x = 0; x < width; x++) {
-                int color = img.getRGB(x, y);
-                int gray = color & 0xff;
-                histogram[gray]++;
+                if (!borderRow && x > 0 && x < width - 1)
+                    x = width - 1;
+                if (!img.isWhite(x, y))
+                    continue;
+                if (top + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = x;
+                stack[top++] = y;
+            }
+        }
+        while (top > 0) {
+            int py = stack[--top];
+            int px = stack[--top];
+            int pRow = py * words;
+            if ((reached[pRow + (px >> 6)] & (1L << px)) != 0)
+                continue;
+            int xl = runStart(white, reached, pRow, px);
+            int xr = runEnd(white, reached, pRow, words, px) - 1;
+            PixelRaster.fillBits(reached, pRow, xl, xr + 1, true);
+            for (int ny = py - 1; ny <= py + 1; ny += 2) {
+                if (ny < 0 || ny >= height)
+                    continue;
+                int nRow = ny * words;
+                int nx = nextFree(white, reached, nRow, words, xl);
+                while (nx <= xr) {
+                    if (top + 2 > stack.length)
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    stack[top++] = nx;
+                    stack[top++] = ny;
+                    nx = nextFree(white, reached, nRow, words, runEnd(white, reached, nRow, words, nx));
+                }
+            }
+        }
+        img.bits = reached;
+    }
+
+    // White where the SE matches, 64 pixels at a time, black holds the black pixels
+    private long[] hitOrMissBits(long[] black, Morphology m) {
+        int words = img.words;
+        long last = img.lastWordMask();
+        long[] out = new long[black.length];
+        for (int y = 0; y < height; y++) {
+            for (int k = 0; k < words; k++) {
+                long acc = k == words - 1 ? last : -1L;
+                for (int n = 0; n < m.dx.length && acc != 0; n++) {
+                    int sy = y + m.dy[n];
+                    long b = sy >= 0 && sy < height
+                            ? PixelRaster.wordAt(black, sy * words, words, (k << 6) + m.dx[n]) : 0;
+                    if (m.value[n] == 255)
+                        acc &= ~b;
+                    else if (m.value[n] == 0)
+                        acc &= b;
+                }
+                out[y * words + k] = acc;
+            }
+        }
+        return out;
+    }
+
+    // The edge and corner elements of the Golay alphabet L and their rotations by 90 degrees,
+    // 0 is the object, 255 the background and -1 does not matter
+    private static Morphology[] golayElements() {
+        int[][] base = {
+                { 255, 255, 255, -1, 0, -1, 0, 0, 0 },
+                { -1, 255, 255, 0, 0, 255, -1, 0, -1 } };
+        Morphology[] golay = new Morphology[8];
+        for (int r = 0; r < 4; r++) {
+            for (int e = 0; e < 2; e++) {
+                StructuringElement se = new StructuringElement(3, 3, new Point(1, 1));
+                for (int y = 0; y < 3; y++) {
+                    for (int x = 0; x < 3; x++) {
+                        // rotate (x, y) r times around the centre
+                        int rx = x, ry = y;
+                        for (int i = 0; i < r; i++) {
+                            int t = rx;
+                            rx = 2 - ry;
+                            ry = t;
+                        }
+                        int v = base[e][y * 3 + x];
+                        if (v < 0)
+                            se.ignoreElements.add(new Point(rx, ry));
+                        else
+                            se.elements[rx][ry] = v;
+                    }
+                }
+                golay[r * 2 + e] = new Morphology(se);
             }
         }
+        return golay;
+    }
+
+    // Result is kept as a binary image, one bit per pixel
+    public void thresholding(int threshold) {
+        if (img == null)
+            return;
+        pointOperation().threshold(threshold);
+    }
+
+    // The histogram comes from one read of the pixels and thresholding writes them once,
+    // an RGB image never goes through a separate grayscale copy
+    public void otsuThreshold() {
+        if (img == null)
+            return;
+        int[] histogram = getGrayscaleHistogram();
         float[] histogramNorm = new float[histogram.length];
         float pixelNum = width * height;
         for (int i = 0; i < histogramNorm.length; i++) {
@@ -656,192 +1001,406 @@ class ImageManager {
         thresholding((int) Math.round(max));
     }
 
+    // Gray levels of every class when the histogram is split into levels classes with the
+    // largest between-class variance, the thresholds are the first level of every class but
+    // the first one
+    public int[] multiOtsuThresholds(int levels) {
+        if (img == null)
+            return null;
+        if (levels < 2 || levels > 256) {
+            System.out.println("INVALID LEVELS!");
+            return null;
+        }
+        int[] histogram = getGrayscaleHistogram();
+        // prefix counts and sums, classes [a, b] cost two lookups
+        long[] count = new long[257], sum = new long[257];
+        for (int i = 0; i < 256; i++) {
+            count[i + 1] = count[i] + histogram[i];
+            sum[i + 1] = sum[i] + (long) histogram[i] * i;
+        }
+        // best[c][i], the largest sum of S^2 / W over c + 1 classes covering levels 0 .. i - 1,
+        // which differs from the between-class variance by a constant
+        double[][] best = new double[levels][257];
+        int[][] split = new int[levels][257];
+        for (int i = 1; i <= 256; i++) {
+            best[0][i] = classScore(count, sum, 0, i);
+        }
+        for (int c = 1; c < levels; c++) {
+            for (int i = c + 1; i <= 256; i++) {
+                best[c][i] = -1;
+                for (int j = c; j < i; j++) {
+                    double score = best[c - 1][j] + classScore(count, sum, j, i);
+                    if (score > best[c][i]) {
+                        best[c][i] = score;
+                        split[c][i] = j;
+                    }
+                }
+            }
+        }
+        int[] thresholds = new int[levels - 1];
+        int end = 256;
+        for (int c = levels - 1; c > 0; c--) {
+            end = split[c][end];
+            thresholds[c - 1] = end;
+        }
+        return thresholds;
+    }
+
+    private static double classScore(long[] count, long[] sum, int from, int to) {
+        long w = count[to] - count[from];
+        if (w == 0)
+            return 0;
+        double s = sum[to] - sum[from];
+        return s * s / w;
+    }
+
+    // Quantize the image to levels evenly spaced gray levels along the multi-level Otsu classes
+    public void multiLevelOtsu(int levels) {
+        int[] thresholds = multiOtsuThresholds(levels);
+        if (thresholds == null)
+            return;
+        int[] lut = new int[256];
+        for (int v = 0, c = 0; v < 256; v++) {
+            while (c < thresholds.length && v >= thresholds[c])
+                c++;
+            lut[v] = c * 255 / (levels - 1);
+        }
+        convertToGrayscale();
+        pointOperation().then(lut);
+    }
+
+    // Local thresholds over the size x size window of every pixel, clipped to the image
+    // The window mean and deviation come from integral images, so the cost per pixel does
+    // not depend on the size. Pixels above their threshold become white and the result is
+    // kept as a binary image.
+
+    // T = m * (1 + k * (s / 128 - 1)), k around 0.2 to 0.5
+    public void sauvolaThreshold(int size, double k) {
+        localThreshold(size, true, (mean, deviation) -> mean * (1 + k * (deviation / 128 - 1)));
+    }
+
+    // T = m + k * s, k around -0.2
+    public void niblackThreshold(int size, double k) {
+        localThreshold(size, true, (mean, deviation) -> mean + k * deviation);
+    }
+
+    // Bradley and Roth, a pixel darker than the window mean by more than percent percent is black
+    public void bradleyThreshold(int size, double percent) {
+        localThreshold(size, false, (mean, deviation) -> mean * (100 - percent) / 100);
+    }
+
+    private interface LocalThreshold {
+        double at(double mean, double deviation);
+    }
+
+    // without deviation the rule gets 0 for it and the squares are not summed
+    private void localThreshold(int size, boolean deviation, LocalThreshold rule) {
+        if (img == null)
+            return;
+        if (size % 2 == 0) {
+            System.out.println("Size Invalid: must be odd number!");
+            return;
+        }
+        grayscaleNow();
+        int[] plane = img.grayPlane();
+        IntegralImage integral = new IntegralImage(plane, width, height, deviation);
+        int r = size / 2;
+        int words = PixelRaster.wordsPerRow(width);
+        long[] bits = new long[words * height];
+        // every band sets the bits of its own rows only
+        TileExecutor.rows(height, 0, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    int n = integral.count(x - r, y - r, x + r, y + r);
+                    double mean = (double) integral.sum(x - r, y - r, x + r, y + r) / n;
+                    double s = 0;
+                    if (deviation) {
+                        double variance = (double) integral.sumSquares(x - r, y - r, x + r, y + r) / n - mean * mean;
+                        s = variance > 0 ? Math.sqrt(variance) : 0;
+                    }
+                    if (plane[y * width + x] > rule.at(mean, s))
+                        bits[y * words + (x >> 6)] |= 1L << x;
+                }
+            }
+        });
+        img = new PixelRaster(width, height, bits);
+    }
+
     public void linearSpatialFilter(double[] kernel, int size) {
         if (img == null)
             return;
+        applyPointOperations();
         if (size % 2 == 0) {
             System.out.println("Size Invalid: must be odd number!");
             return;
         }
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double sumRed = 0, sumGreen = 0, sumBlue = 0;
-                for (int i = y - size / 2; i <= y + size / 2; i++) {
-                    for (int j = x - size / 2; j <= x + size / 2; j++) {
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            int color = img.getRGB(j, i);
-                            int r = (color >> 16) & 0xff;
-                            int g = (color >> 8) & 0xff;
-                            int b = color & 0xff;
+        // rank 1 kernels are applied as a row pass and a column pass
+        double[][] separated = separateKernel(kernel, size);
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            if (separated != null)
+                planes[c] = separablePlane(planes[c], separated[1], separated[0]);
+            else
+                planes[c] = linearSpatialPlane(planes[c], kernel, size, size >= FFT_KERNEL_SIZE);
+        }
+        img.setPlanes(planes);
+    }
+
+    // Filter the rows with rowKernel and then the columns with columnKernel, the same as
+    // linearSpatialFilter with the kernel columnKernel[i] * rowKernel[j] at O(2k) per pixel
+    public void separableFilter(double[] rowKernel, double[] columnKernel) {
+        if (img == null)
+            return;
+        applyPointOperations();
+        if (rowKernel.length % 2 == 0 || columnKernel.length % 2 == 0) {
+            System.out.println("Size Invalid: must be odd number!");
+            return;
+        }
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            planes[c] = separablePlane(planes[c], rowKernel, columnKernel);
+        }
+        img.setPlanes(planes);
+    }
 
-                            sumRed += r * kernel[(i - (y - size / 2)) * size + (j - (x - size / 2))];
+    // the column and row kernels whose outer product is kernel, null when it is not rank 1
+    static double[][] separateKernel(double[] kernel, int size) {
+        int pivot = 0;
+        for (int i = 1; i < size * size; i++) {
+            if (Math.abs(kernel[i]) > Math.abs(kernel[pivot]))
+                pivot = i;
+        }
+        double max = Math.abs(kernel[pivot]);
+        if (max == 0)
+            return null;
+        int pivotRow = pivot / size, pivotColumn = pivot % size;
+        double[] column = new double[size];
+        double[] row = new double[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = kernel[i * size + pivotColumn];
+            row[i] = kernel[pivotRow * size + i] / kernel[pivot];
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (Math.abs(kernel[i * size + j] - column[i] * row[j]) > 1e-9 * max)
+                    return null;
+            }
+        }
+        return new double[][] { column, row };
+    }
 
-                            sumGreen += g * kernel[(i - (y - size / 2)) * size + (j - (x - size / 2))];
+    // normalized sampled gaussian of the given odd size
+    static double[] gaussianKernel(double sigma, int size) {
+        double[] kernel = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            int d = i - size / 2;
+            kernel[i] = Math.exp(-d * d / (2 * sigma * sigma));
+            sum += kernel[i];
+        }
+        for (int i = 0; i < size; i++) {
+            kernel[i] /= sum;
+        }
+        return kernel;
+    }
 
-                            sumBlue += b * kernel[(i - (y - size / 2)) * size + (j - (x - size / 2))];
+    private int[] separablePlane(int[] src, double[] rowKernel, double[] columnKernel) {
+        double[] values = new double[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = src[i];
+        }
+        double[] sums = separableSums(values, width, height, rowKernel, columnKernel);
+        int[] tempBuf = new int[width * height];
+        for (int i = 0; i < sums.length; i++) {
+            double sum = sums[i];
+            sum = sum > 255 ? 255 : sum;
+            sum = sum < 0 ? 0 : sum;
+            tempBuf[i] = (int) sum;
+        }
+        return tempBuf;
+    }
 
-                        }
+    // window sums of columnKernel[i] * rowKernel[j] * src with zeros outside of the plane
+    static double[] separableSums(double[] src, int width, int height, double[] rowKernel, double[] columnKernel) {
+        int rowHalf = rowKernel.length / 2, columnHalf = columnKernel.length / 2;
+        double[] rows = new double[width * height];
+        TileExecutor.rows(height, 0, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int jStart = Math.max(x - rowHalf, 0), jEnd = Math.min(x + rowHalf, width - 1);
+                    double sum = 0;
+                    for (int j = jStart; j <= jEnd; j++) {
+                        sum += src[row + j] * rowKernel[j - x + rowHalf];
                     }
+                    rows[row + x] = sum;
                 }
-                sumRed = sumRed > 255 ? 255 : sumRed;
-                sumRed = sumRed < 0 ? 0 : sumRed;
-                sumGreen = sumGreen > 255 ? 255 : sumGreen;
-                sumGreen = sumGreen < 0 ? 0 : sumGreen;
-                sumBlue = sumBlue > 255 ? 255 : sumBlue;
-                sumBlue = sumBlue < 0 ? 0 : sumBlue;
-                int newColor = ((int) sumRed << 16) | ((int) sumGreen << 8) | (int) sumBlue;
-                tempBuf.setRGB(x, y, newColor);
             }
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
+        });
+        double[] sums = new double[width * height];
+        TileExecutor.rows(height, columnHalf, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int iStart = Math.max(y - columnHalf, 0), iEnd = Math.min(y + columnHalf, height - 1);
+                for (int i = iStart; i <= iEnd; i++) {
+                    double k = columnKernel[i - y + columnHalf];
+                    for (int x = 0; x < width; x++) {
+                        sums[y * width + x] += rows[i * width + x] * k;
+                    }
+                }
             }
-        }
+        });
+        return sums;
     }
 
-    public void cannyEdgeDetector(int lower, int upper) {
-        // Step 1 - Apply 5 x 5 Gaussian filter
-        double[] gaussian = { 2.0 / 159.0, 4.0 / 159.0, 5.0 / 159.0, 4.0 / 159.0, 2.0 / 159.0,
-                4.0 / 159.0, 9.0 / 159.0, 12.0 / 159.0, 9.0 / 159.0, 4.0 / 159.0,
-                5.0 / 159.0, 12.0 / 159.0, 15.0 / 159.0, 12.0 / 159.0, 5.0 / 159.0,
-                4.0 / 159.0, 9.0 / 159.0, 12.0 / 159.0, 9.0 / 159.0, 4.0 / 159.0,
-                2.0 / 159.0, 4.0 / 159.0, 5.0 / 159.0, 4.0 / 159.0, 2.0 / 159.0 };
-        linearSpatialFilter(gaussian, 5);
-        convertToGrayscale();
+    // kernels this size and up are applied through the FFT, see ConvolutionBenchmark
+    static final int FFT_KERNEL_SIZE = 9;
 
-        // Step 2 - Find intensity gradient
-        double[] sobelX = { 1, 0, -1, 2, 0, -2, 1, 0, -1 };
-        double[] sobelY = { 1, 2, 1, 0, 0, 0, -1, -2, -1 };
-        double[][] magnitude = new double[height][width];
-        double[][] direction = new double[height][width];
-        for (int y = 3; y < height - 3; y++) {
-            for (int x = 3; x < width - 3; x++) {
-                double gx = 0, gy = 0;
-                for (int i = y - 1; i <= y + 1; i++) {
-                    for (int j = x - 1; j <= x + 1; j++) {
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            int color = img.getRGB(j, i);
-                            int gray = color & 0xff;
-                            gx += gray * sobelX[(i - (y - 1)) * 3 + (j - (x - 1))];
-                            gy += gray * sobelY[(i - (y - 1)) * 3 + (j - (x - 1))];
+    int[] linearSpatialPlane(int[] src, double[] kernel, int size, boolean useFFT) {
+        int[] tempBuf = new int[width * height];
+        if (useFFT) {
+            double[] sums = FrequencyDomainManager.correlate(src, width, height, kernel, size);
+            for (int i = 0; i < sums.length; i++) {
+                double sum = sums[i];
+                sum = sum > 255 ? 255 : sum;
+                sum = sum < 0 ? 0 : sum;
+                tempBuf[i] = (int) sum;
+            }
+            return tempBuf;
+        }
+        TileExecutor.rows(height, size / 2, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int iStart = Math.max(y - size / 2, 0), iEnd = Math.min(y + size / 2, height - 1);
+                for (int x = 0; x < width; x++) {
+                    int jStart = Math.max(x - size / 2, 0), jEnd = Math.min(x + size / 2, width - 1);
+                    double sum = 0;
+                    for (int i = iStart; i <= iEnd; i++) {
+                        int row = i * width;
+                        int kRow = (i - (y - size / 2)) * size - (x - size / 2);
+                        for (int j = jStart; j <= jEnd; j++) {
+                            sum += src[row + j] * kernel[kRow + j];
                         }
                     }
+                    sum = sum > 255 ? 255 : sum;
+                    sum = sum < 0 ? 0 : sum;
+                    tempBuf[y * width + x] = (int) sum;
                 }
-                magnitude[y][x] = Math.sqrt(gx * gx + gy * gy);
-                direction[y][x] = Math.atan2(gy, gx) * 180 / Math.PI;
-            }
-        }
-
-        // Step 3 - Nonmaxima Suppression
-        double[][] gn = new double[height][width];
-        for (int y = 3; y < height - 3; y++) {
-            for (int x = 3; x < width - 3; x++) {
-                int targetX = 0, targetY = 0;
-                // find closest direction
-                if (direction[y][x] <= -157.5) {
-                    targetX = 1;
-                    targetY = 0;
-                } else if (direction[y][x] <= -112.5) {
-                    targetX = 1;
-                    targetY = -1;
-                } else if (direction[y][x] <= -67.5) {
-                    targetX = 0;
-                    targetY = 1;
-                } else if (direction[y][x] <= -22.5) {
-                    targetX = 1;
-                    targetY = 1;
-                } else if (direction[y][x] <= 22.5) {
-                    targetX = 1;
-                    targetY = 0;
-                } else if (direction[y][x] <= 67.5) {
-                    targetX = 1;
-                    targetY = -1;
-                } else if (direction[y][x] <= 112.5) {
-                    targetX = 0;
-                    targetY = 1;
-                } else if (direction[y][x] <= 157.5) {
-                    targetX = 1;
-                    targetY = 1;
-                } else {
-                    targetX = 1;
-                    targetY = 0;
-                }
-                if (y + targetY >= 0 && y + targetY < height &&
-                        x + targetX >= 0 && x + targetX < width &&
-                        magnitude[y][x] < magnitude[y + targetY][x + targetX]) {
-                    gn[y][x] = 0;
-                } else if (y - targetY >= 0 && y - targetY < height &&
-                        x - targetX >= 0 && x - targetX < width &&
-                        magnitude[y][x] < magnitude[y - targetY][x - targetX]) {
-                    gn[y][x] = 0;
-                } else {
-                    gn[y][x] = magnitude[y][x];
+            }
+        });
+        return tempBuf;
+    }
+
+    public void cannyEdgeDetector(int lower, int upper) {
+        applyPointOperations();
+        // Step 1 - Apply 5 x 5 Gaussian filter, sigma 1.4 as separable passes
+        double[] gaussian = gaussianKernel(1.4, 5);
+        separableFilter(gaussian, gaussian);
+        grayscaleNow();
+
+        // Step 2 - Find intensity gradient, Step 3 - Nonmaxima Suppression
+        // The gradient runs one row ahead of the suppression, so a band only keeps three rows
+        // of squared magnitudes and directions, starting from the row above it. The gradient
+        // is left 0 within 3 pixels of the border.
+        int[] pixels = img.grayPlane();
+        int n = width * height;
+        if (cannyEdges == null || cannyEdges.length < n)
+            cannyEdges = new byte[n];
+        byte[] edges = cannyEdges;
+        Arrays.fill(edges, 0, n, (byte) 0);
+        // neighbour pair across the edge for every direction code
+        int[] targetX = { 1, 0, 1, 1 };
+        int[] targetY = { 0, 1, -1, 1 };
+        TileExecutor.rows(height, 1, (from, to) -> {
+            int[] magnitude = new int[3 * width];
+            byte[] direction = new byte[3 * width];
+            int yStart = Math.max(from, 3), yEnd = Math.min(to, height - 3);
+            gradientRow(pixels, yStart - 1, magnitude, direction);
+            gradientRow(pixels, yStart, magnitude, direction);
+            for (int y = yStart; y < yEnd; y++) {
+                gradientRow(pixels, y + 1, magnitude, direction);
+                int row = (y % 3) * width;
+                for (int x = 3; x < width - 3; x++) {
+                    int m = magnitude[row + x];
+                    int d = direction[row + x];
+                    int ahead = ((y + targetY[d] + 3) % 3) * width + x + targetX[d];
+                    int behind = ((y - targetY[d] + 3) % 3) * width + x - targetX[d];
+                    if (m < magnitude[ahead] || m < magnitude[behind])
+                        continue;
+                    int value = (int) Math.sqrt(m);
+                    edges[y * width + x] = (byte) (value > 255 ? 255 : value);
                 }
             }
-        }
+        });
 
         // Step 4 - Hysteresis Thresholding
-        // set back first
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int newGray = (int) gn[y][x];
-                newGray = newGray > 255 ? 255 : newGray;
-                newGray = newGray < 0 ? 0 : newGray;
-                int newColor = (newGray << 16) | (newGray << 8) | newGray;
-                img.setRGB(x, y, newColor);
-            }
-        }
-        // upper threshold checking with recursive
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int checking = img.getRGB(x, y) & 0xff;
-                if (checking >= upper) {
-                    checking = 255;
-                    int newColor = (checking << 16) | (checking << 8) | checking;
-                    img.setRGB(x, y, newColor);
-                    hystConnect(x, y, lower);
+        // every pixel at or above upper starts an edge, which grows through the 8 neighbours
+        // at or above lower, tracked with an explicit stack on the calling thread
+        int[] stack = cannyStack == null ? new int[1024] : cannyStack;
+        for (int seed = 0; seed < n; seed++) {
+            if ((edges[seed] & 0xff) < upper)
+                continue;
+            edges[seed] = (byte) 255;
+            int top = 0;
+            stack[top++] = seed;
+            while (top > 0) {
+                int i = stack[--top];
+                int x = i % width, y = i / width;
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height - 1); ny++) {
+                    for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width - 1); nx++) {
+                        int j = ny * width + nx;
+                        int value = edges[j] & 0xff;
+                        if (value == 255 || value < lower)
+                            continue;
+                        edges[j] = (byte) 255;
+                        if (top == stack.length)
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        stack[top++] = j;
+                    }
                 }
             }
         }
+        cannyStack = stack;
         // clear unwanted values
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int checking = img.getRGB(x, y) & 0xff;
-                if (checking != 255) {
-                    int newColor = (0 << 16) | (0 << 8) | 0;
-                    img.setRGB(x, y, newColor);
-                }
-            }
+        byte[] result = new byte[n];
+        for (int i = 0; i < n; i++) {
+            if (edges[i] == (byte) 255)
+                result[i] = (byte) 255;
         }
+        img = new PixelRaster(width, height, result);
     }
 
-    private void hystConnect(int x, int y, int threshold) {
-        int value = 0;
-        for (int i = y - 1; i <= y + 1; i++) {
-            for (int j = x - 1; j <= x + 1; j++) {
-                if ((j < width) && (i < height) &&
-                        (j >= 0) && (i >= 0) &&
-                        (j != x) && (i != y)) {
-                    value = img.getRGB(j, i) & 0xff;
-                    if (value != 255) {
-                        if (value >= threshold) {
-                            int newColor = (255 << 16) | (255 << 8) | 255;
-                            img.setRGB(j, i, newColor);
-                            hystConnect(j, i, threshold);
-                        } else {
-
-                            int newColor = (0 << 16) | (0 << 8) | 0;
-                            img.setRGB(j, i, newColor);
-                        }
-                    }
-                }
-            }
+    // Sobel gradient of row y into the rolling rows of magnitude and direction, the squared
+    // magnitude and the direction quantized to 0 horizontal, 1 vertical, 2 and 3 diagonal,
+    // from integer tests instead of atan2: the gradient is within 22.5 degrees of the x axis
+    // when |gy| < tan(22.5) |gx|, that is when (|gx| + |gy|)^2 < 2 gx^2
+    private void gradientRow(int[] pixels, int y, int[] magnitude, byte[] direction) {
+        int row = (y % 3) * width;
+        Arrays.fill(magnitude, row, row + width, 0);
+        if (y < 3 || y >= height - 3)
+            return;
+        for (int x = 3; x < width - 3; x++) {
+            int i = y * width + x;
+            int gx = pixels[i - width - 1] - pixels[i - width + 1] + 2 * (pixels[i - 1] - pixels[i + 1])
+                    + pixels[i + width - 1] - pixels[i + width + 1];
+            int gy = pixels[i - width - 1] + 2 * pixels[i - width] + pixels[i - width + 1]
+                    - pixels[i + width - 1] - 2 * pixels[i + width] - pixels[i + width + 1];
+            int ax = Math.abs(gx), ay = Math.abs(gy);
+            int sum = (ax + ay) * (ax + ay);
+            byte d;
+            if (sum < 2 * ax * ax)
+                d = 0;
+            else if (sum < 2 * ay * ay)
+                d = 1;
+            else if ((gx > 0) == (gy > 0))
+                d = 2;
+            else
+                d = 3;
+            magnitude[row + x] = gx * gx + gy * gy;
+            direction[row + x] = d;
         }
     }
 
     public void houghTransform(double percent) {
+        applyPointOperations();
         // The image should be converted to edge map first
         // Work out how the hough space is quantized
         int numOfTheta = 720;
@@ -859,9 +1418,10 @@ class ImageManager {
         }
         // Step 1 - find each edge pixel
         // Find edge points and vote in array
+        int[] edges = img.grayPlane();
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int pointColor = img.getRGB(x, y) & 0xff;
+                int pointColor = edges[y * width + x];
                 if (pointColor != 0) {
                     // Edge pixel found
                     for (int i = 0; i < numOfTheta; i++) {
@@ -892,6 +1452,8 @@ class ImageManager {
         }
         // Set the threshold limit
         int threshold = (int) (percent * maxHough);
+        // lines are drawn in red
+        img.toRGB();
         // Step 4 - Draw lines
         // Search for local peaks above threshold to draw
         for (int i = 0; i < numOfTheta; i++) {
@@ -935,7 +1497,7 @@ class ImageManager {
 
                             if (x < width && x >= 0) {
                                 int redColor = (255 << 16) | (0 << 8) | 0;
-                                img.setRGB(x, y, redColor);
+                                img.pixels[y * width + x] = redColor;
                             }
                         }
                     } else {
@@ -946,23 +1508,25 @@ class ImageManager {
 
                             if (y < height && y >= 0) {
                                 int redColor = (255 << 16) | (0 << 8) | 0;
-                                img.setRGB(x, y, redColor);
+                                img.pixels[y * width + x] = redColor;
                             }
                         }
                     }
                 }
             }
         }
+        img.modified();
     }
 
     public void ADIAbsolute(String[] sequences, int threshold, int step) {
         if (img == null)
             return;
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
+        applyPointOperations();
+        int[] tempBuf = new int[width * height];
         for (int n = 0; n < sequences.length; n++) {
-            BufferedImage otherImage = null;
+            PixelRaster otherImage = null;
             try {
-                otherImage = ImageIO.read(new File(sequences[n]));
+                otherImage = new PixelRaster(ImageIO.read(new File(sequences[n])));
             } catch (IOException e) {
                 System.out.println(e);
                 return;
@@ -982,33 +1546,28 @@ class ImageManager {
                     int db = b1 - b2;
                     int dGray = (int) Math.round(0.2126 * dr + 0.7152 * dg + 0.0722 * db);
                     if (Math.abs(dGray) > threshold) {
-                        int currentColor = tempBuf.getRGB(x, y) & 0xff;
+                        int currentColor = tempBuf[y * width + x];
                         currentColor += step;
                         currentColor = currentColor > 255 ? 255 : currentColor;
                         currentColor = currentColor < 0 ? 0 : currentColor;
 
-                        int newColor = (currentColor << 16) | (currentColor << 8) | currentColor;
-
-                        tempBuf.setRGB(x, y, newColor);
+                        tempBuf[y * width + x] = currentColor;
                     }
                 }
             }
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
-        }
+        img.setPlanes(new int[][] { tempBuf });
     }
 
     public void ADINegative(String[] sequences, int threshold, int step) {
         if (img == null)
             return;
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
+        applyPointOperations();
+        int[] tempBuf = new int[width * height];
         for (int n = 0; n < sequences.length; n++) {
-            BufferedImage otherImage = null;
+            PixelRaster otherImage = null;
             try {
-                otherImage = ImageIO.read(new File(sequences[n]));
+                otherImage = new PixelRaster(ImageIO.read(new File(sequences[n])));
             } catch (IOException e) {
                 System.out.println(e);
                 return;
@@ -1028,139 +1587,299 @@ class ImageManager {
                     int db = b1 - b2;
                     int dGray = (int) Math.round(0.2126 * dr + 0.7152 * dg + 0.0722 * db);
                     if (dGray < -threshold) {
-                        int currentColor = tempBuf.getRGB(x, y) & 0xff;
+                        int currentColor = tempBuf[y * width + x];
                         currentColor += step;
                         currentColor = currentColor > 255 ? 255 : currentColor;
                         currentColor = currentColor < 0 ? 0 : currentColor;
 
-                        int newColor = (currentColor << 16) | (currentColor << 8) | currentColor;
-
-                        tempBuf.setRGB(x, y, newColor);
+                        tempBuf[y * width + x] = currentColor;
                     }
                 }
             }
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
-        }
+        img.setPlanes(new int[][] { tempBuf });
     }
 
     public ArrayList<Point> detectHarrisFeatures(int strongest) {
-        // convert to gray scale first
-        double[][] Ix = new double[height][width];
-        double[][] Iy = new double[height][width];
-        // Initialize matrices to store products of gradients
-        double[][] Ix2 = new double[height][width];
-        double[][] Iy2 = new double[height][width];
-        double[][] Ixy = new double[height][width];
-        // Compute gradients Ix and Iy, drop the border
-        for (int y = 1; y < height - 1; y++) {
-            for (int x = 1; x < width - 1; x++) {
-                int color = img.getRGB(x, y);
-                int gray = color & 0xff;
-                Ix[y][x] = ((img.getRGB(x + 1, y) & 0xff) - (img.getRGB(x - 1, y) & 0xff)) / 2.0;
-
-                Iy[y][x] = ((img.getRGB(x, y + 1) & 0xff) - (img.getRGB(x, y - 1) & 0xff)) / 2.0;
-
-                Ix2[y][x] = Ix[y][x] * Ix[y][x];
-                Iy2[y][x] = Iy[y][x] * Iy[y][x];
-                Ixy[y][x] = Ix[y][x] * Iy[y][x];
-            }
-        }
-
-        // apply 3 x 3 gaussian smoothing for each matrices
-        double[][] Sx2 = new double[height][width];
-        double[][] Sy2 = new double[height][width];
-        double[][] Sxy = new double[height][width];
-        double[] gaussian = {
-                1.0 / 16.0, 2.0 / 16.0, 1.0 / 16.0,
-                2.0 / 16.0, 4.0 / 16.0, 1.0 / 16.0,
-                1.0 / 16.0, 2.0 / 16.0, 1.0 / 16.0
-        };
-        for (int y = 1; y < height - 1; y++) {
-            for (int x = 1; x < width - 1; x++) {
-                Sx2[y][x] = 0;
-                Sy2[y][x] = 0;
-                Sxy[y][x] = 0;
-                for (int i = y - 1; i <= y + 1; i++) {
-                    for (int j = x - 1; j <= x + 1; j++) {
-                        Sx2[y][x] += Ix2[i][j] * gaussian[(i - (y - 1)) * 3 + (j - (x - 1))];
-                        Sy2[y][x] += Iy2[i][j] * gaussian[(i - (y - 1)) * 3 + (j - (x - 1))];
-                        Sxy[y][x] += Ixy[i][j] * gaussian[(i - (y - 1)) * 3 + (j - (x - 1))];
-                    }
+        return detectHarrisFeatures(strongest, false);
+    }
+
+    // The strongest local maxima of the Harris response, strongest first, equal responses
+    // later in scan order first, with a red X drawn on each when mark is set
+    public ArrayList<Point> detectHarrisFeatures(int strongest, boolean mark) {
+        applyPointOperations();
+        double[] response = cornerResponse(img.grayPlane(), false);
+
+        // Maxima Suspression (see if it is the maximum value to the neighbours), every band
+        // keeps its strongest in a heap and the heaps are merged
+        CornerHeap heap = new CornerHeap(strongest);
+        TileExecutor.rows(height, 1, (from, to) -> {
+            CornerHeap band = new CornerHeap(strongest);
+            for (int y = Math.max(from, 1); y < Math.min(to, height - 1); y++) {
+                for (int x = 1; x < width - 1; x++) {
+                    int p = y * width + x;
+                    double peak = response[p];
+                    // if negative, not a corner
+                    if (peak < 0)
+                        continue;
+                    if (response[p - width - 1] > peak || response[p - width] > peak || response[p - width + 1] > peak
+                            || response[p - 1] > peak || response[p + 1] > peak || response[p + width - 1] > peak
+                            || response[p + width] > peak || response[p + width + 1] > peak)
+                        continue;
+                    band.offer(peak, p);
                 }
             }
+            synchronized (heap) {
+                heap.addAll(band);
+            }
+        });
+        ArrayList<Point> cornerPoints = new ArrayList<>();
+        for (int p : heap.sortedIndices()) {
+            cornerPoints.add(new Point(p % width, p / width));
         }
-
-        double[][] corners = new double[height][width];
-        // Compute the corner response function R
-        // High R = Corner, Low R = Flat, Negative R = Edge
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double det = Sx2[y][x] * Sy2[y][x] - Sxy[y][x] * Sxy[y][x];
-                double trace = Sx2[y][x] + Sy2[y][x];
-                corners[y][x] = det - 0.04 * trace * trace;
+        if (mark) {
+            // Draw red X
+            img.toRGB();
+            for (Point p : cornerPoints) {
+                int redColor = (255 << 16) | (0 << 8) | 0;
+                img.setRGB(p.x, p.y, redColor);
+                img.setRGB(p.x + 1, p.y + 1, redColor);
+                img.setRGB(p.x + 1, p.y - 1, redColor);
+                img.setRGB(p.x - 1, p.y + 1, redColor);
+                img.setRGB(p.x - 1, p.y - 1, redColor);
             }
         }
+        return cornerPoints;
+    }
 
-        ArrayList<Point> cornerPoints = new ArrayList<>();
-        ArrayList<Double> cornerValues = new ArrayList<>();
-        // Maxima Suspression (see if it is the maximum value to the neighbours)
-        for (int y = 1; y < height - 1; y++) {
-            for (int x = 1; x < width - 1; x++) {
-                // if negative, not a corner
-                if (corners[y][x] < 0)
-                    continue;
-                // see if local maxima
-                double peak = corners[y][x];
-                boolean isMaxima = true;
-                // Check 3x3 neighborhood
-                for (int k = -1; k <= 1 && isMaxima; k++) {
-                    for (int l = -1; l <= 1; l++) {
-                        if (k == 0 && l == 0)
-                            continue; // Skip the center pixel
-                        int testX = x + k;
-                        int testY = y + l;
-                        if (corners[testY][testX] > peak) {
-                            isMaxima = false;
-                            break; // Early exit if a larger neighbor is found
-                        }
-                    }
-                }
-                if (isMaxima) {
-                    // Point is a local maxima, find the correct position to insert
-                    int insertPos = 0;
-                    while (insertPos < cornerValues.size() && cornerValues.get(insertPos) > peak)
-                    {
-                        insertPos++;
+    // Harris response det - 0.04 trace^2 of the structure tensor of every pixel, or with
+    // shiTomasi its smaller eigenvalue, the border left at 0
+    // Gradient products are smoothed by [1 2 1] / 4 on the rows as they are made, and three
+    // such rows rolling through a ring buffer give the column smoothing, so no band keeps more
+    // than three rows of the tensor.
+    private double[] cornerResponse(int[] pixels, boolean shiTomasi) {
+        double[] response = new double[width * height];
+        TileExecutor.rows(height, 2, (from, to) -> {
+            // products of the gradients of one row, then three rows of them smoothed
+            double[] x2 = new double[width], y2 = new double[width], xy = new double[width];
+            double[] sx2 = new double[3 * width], sy2 = new double[3 * width], sxy = new double[3 * width];
+            int yStart = Math.max(from, 1), yEnd = Math.min(to, height - 1);
+            for (int r = yStart - 1; r <= yEnd; r++) {
+                int ring = (r % 3) * width;
+                if (r >= 1 && r < height - 1) {
+                    // gradients, dropping the border
+                    for (int x = 1; x < width - 1; x++) {
+                        int p = r * width + x;
+                        double Ix = (pixels[p + 1] - pixels[p - 1]) / 2.0;
+                        double Iy = (pixels[p + width] - pixels[p - width]) / 2.0;
+                        x2[x] = Ix * Ix;
+                        y2[x] = Iy * Iy;
+                        xy[x] = Ix * Iy;
                     }
-                    // Insert corner in the correct position
-                    cornerPoints.add(insertPos, new Point(x, y));
-                    cornerValues.add(insertPos, peak);
-                    // If we have more points than needed, remove the weakest ones
-                    if (cornerPoints.size() > strongest) {
-                        cornerPoints.remove(strongest);
-                        cornerValues.remove(strongest);
+                    for (int x = 1; x < width - 1; x++) {
+                        sx2[ring + x] = smooth(0, x2[x - 1], x2[x], x2[x + 1]);
+                        sy2[ring + x] = smooth(0, y2[x - 1], y2[x], y2[x + 1]);
+                        sxy[ring + x] = smooth(0, xy[x - 1], xy[x], xy[x + 1]);
                     }
+                } else {
+                    Arrays.fill(sx2, ring, ring + width, 0);
+                    Arrays.fill(sy2, ring, ring + width, 0);
+                    Arrays.fill(sxy, ring, ring + width, 0);
                 }
+                // row r + 1 is in, so row r - 1 is complete
+                int y = r - 1;
+                if (y < yStart)
+                    continue;
+                int above = ((y - 1) % 3) * width, middle = (y % 3) * width, below = (r % 3) * width;
+                // Compute the corner response function R
+                // High R = Corner, Low R = Flat, Negative R = Edge
+                for (int x = 1; x < width - 1; x++) {
+                    double Sx2 = smooth(0, sx2[above + x], sx2[middle + x], sx2[below + x]);
+                    double Sy2 = smooth(0, sy2[above + x], sy2[middle + x], sy2[below + x]);
+                    double Sxy = smooth(0, sxy[above + x], sxy[middle + x], sxy[below + x]);
+                    double det = Sx2 * Sy2 - Sxy * Sxy;
+                    double trace = Sx2 + Sy2;
+                    if (shiTomasi)
+                        response[y * width + x] = (trace - Math.sqrt((Sx2 - Sy2) * (Sx2 - Sy2) + 4 * Sxy * Sxy)) / 2;
+                    else
+                        response[y * width + x] = det - 0.04 * trace * trace;
+                }
+            }
+        });
+        return response;
+    }
+
+    public static final int HARRIS = 0, SHI_TOMASI = 1;
+
+    // Up to strongest corners, strongest first, none closer than radius to a stronger one
+    // Corners are the positive 3 x 3 maxima of the HARRIS or SHI_TOMASI response, taken from
+    // the strongest down and kept when a grid of the kept ones has none within radius.
+    public ArrayList<Point> detectFeatures(int strongest, int response, double radius) {
+        ArrayList<Point> cornerPoints = new ArrayList<>();
+        if (!validFeatures(strongest, response, radius))
+            return cornerPoints;
+        int[] candidates = cornerCandidates(cornerResponse(img.grayPlane(), response == SHI_TOMASI));
+        // without a radius every candidate is kept, and small radii still get cells of a
+        // few pixels so the grid does not hold a list per pixel
+        PointGrid kept = radius > 0 ? new PointGrid(width, height, Math.max((int) Math.ceil(radius), 16)) : null;
+        for (int i = 0; i < candidates.length && cornerPoints.size() < strongest; i++) {
+            Point p = new Point(candidates[i] % width, candidates[i] / width);
+            if (kept != null) {
+                if (kept.anyWithin(p.x, p.y, radius))
+                    continue;
+                kept.add(p);
+            }
+            cornerPoints.add(p);
+        }
+        return cornerPoints;
+    }
+
+    // Up to strongest corners spread over the image by adaptive non-maximal suppression
+    // (Brown, Szeliski and Winder): each corner has the radius to the nearest corner it is
+    // clearly weaker than (below 0.9 of it), and the corners with the largest radii are
+    // kept, largest first, so a crowd of strong corners does not hide the rest of the page.
+    public ArrayList<Point> detectFeaturesAdaptive(int strongest, int response) {
+        ArrayList<Point> cornerPoints = new ArrayList<>();
+        if (!validFeatures(strongest, response, 0))
+            return cornerPoints;
+        double[] values = cornerResponse(img.grayPlane(), response == SHI_TOMASI);
+        int[] candidates = cornerCandidates(values);
+        // corners go into the grid from the strongest down as soon as they are clearly
+        // stronger than the one asking
+        PointGrid stronger = new PointGrid(width, height, 16);
+        double[] radius = new double[candidates.length];
+        int added = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            double value = values[candidates[i]];
+            while (added < i && 0.9 * values[candidates[added]] > value) {
+                stronger.add(new Point(candidates[added] % width, candidates[added] / width));
+                added++;
+            }
+            Point nearest = stronger.nearest(candidates[i] % width, candidates[i] / width);
+            if (nearest == null) {
+                radius[i] = Double.MAX_VALUE;
+            } else {
+                double dx = nearest.x - candidates[i] % width, dy = nearest.y - candidates[i] / width;
+                radius[i] = dx * dx + dy * dy;
             }
         }
-        // restoreToOriginal();
-        // Draw red X
-        for (Point p : cornerPoints) {
-            int redColor = (255 << 16) | (0 << 8) | 0;
-            img.setRGB(p.x, p.y, redColor);
-            img.setRGB(p.x + 1, p.y + 1, redColor);
-            img.setRGB(p.x + 1, p.y - 1, redColor);
-            img.setRGB(p.x - 1, p.y + 1, redColor);
-            img.setRGB(p.x - 1, p.y - 1, redColor);
+        int[] order = new int[candidates.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // a stable sort keeps the stronger first among equal radii
+        sortDescending(order, radius);
+        for (int i = 0; i < Math.min(strongest, order.length); i++) {
+            int p = candidates[order[i]];
+            cornerPoints.add(new Point(p % width, p / width));
         }
         return cornerPoints;
     }
 
+    private boolean validFeatures(int strongest, int response, double radius) {
+        if (img == null)
+            return false;
+        applyPointOperations();
+        if (strongest < 0) {
+            System.out.println("INVALID COUNT!");
+            return false;
+        }
+        if (response != HARRIS && response != SHI_TOMASI) {
+            System.out.println("INVALID RESPONSE!");
+            return false;
+        }
+        if (radius < 0) {
+            System.out.println("INVALID RADIUS!");
+            return false;
+        }
+        return true;
+    }
+
+    // pixels of the positive 3 x 3 maxima of values, strongest first and equal ones later in
+    // scan order first
+    private int[] cornerCandidates(double[] values) {
+        boolean[] maxima = new boolean[width * height];
+        TileExecutor.rows(height, 1, (from, to) -> {
+            for (int y = Math.max(from, 1); y < Math.min(to, height - 1); y++) {
+                for (int x = 1; x < width - 1; x++) {
+                    int p = y * width + x;
+                    double peak = values[p];
+                    maxima[p] = peak > 0 && values[p - width - 1] <= peak && values[p - width] <= peak
+                            && values[p - width + 1] <= peak && values[p - 1] <= peak && values[p + 1] <= peak
+                            && values[p + width - 1] <= peak && values[p + width] <= peak
+                            && values[p + width + 1] <= peak;
+                }
+            }
+        });
+        int count = 0;
+        for (boolean maximum : maxima) {
+            if (maximum)
+                count++;
+        }
+        // in reverse scan order, which the stable sort keeps among equal values
+        int[] candidates = new int[count];
+        for (int p = maxima.length - 1, k = 0; p >= 0; p--) {
+            if (maxima[p])
+                candidates[k++] = p;
+        }
+        sortDescending(candidates, values);
+        return candidates;
+    }
+
+    // Stable merge sort of indices by keys[index], largest first, on primitive arrays
+    private static void sortDescending(int[] indices, double[] keys) {
+        int n = indices.length;
+        int[] from = indices, to = new int[n];
+        for (int run = 1; run < n; run *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * run) {
+                int mid = Math.min(lo + run, n), hi = Math.min(lo + 2 * run, n);
+                int i = lo, j = mid, k = lo;
+                // the right run only goes first when strictly larger
+                while (i < mid && j < hi) {
+                    to[k++] = keys[from[j]] > keys[from[i]] ? from[j++] : from[i++];
+                }
+                while (i < mid) {
+                    to[k++] = from[i++];
+                }
+                while (j < hi) {
+                    to[k++] = from[j++];
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != indices)
+            System.arraycopy(from, 0, indices, 0, n);
+    }
+
+    // [1 2 1] / 4 of three values, added in the order separableSums adds them
+    private static double smooth(double sum, double a, double b, double c) {
+        sum += a * (1.0 / 4.0);
+        sum += b * (2.0 / 4.0);
+        sum += c * (1.0 / 4.0);
+        return sum;
+    }
+
+    // RANSAC for more than 4 pairs: inliers within 3 pixels, the best hypothesis found with
+    // 99.5% confidence in at most 2000 samples, from a fixed seed so every run gives the same
+    static final double RANSAC_THRESHOLD = 3, RANSAC_CONFIDENCE = 0.995;
+    static final int RANSAC_ITERATIONS = 2000;
+    static final long RANSAC_SEED = 0;
+
     public double[] calculateHomography(double[][] srcPoints, double[][] dstPoints) {
+        return calculateHomography(srcPoints, dstPoints,
+                new HomographyEstimator(RANSAC_THRESHOLD, RANSAC_CONFIDENCE, RANSAC_ITERATIONS, RANSAC_SEED));
+    }
+
+    // 4 pairs give the exact homography, more go to estimator since they may hold wrong ones
+    public double[] calculateHomography(double[][] srcPoints, double[][] dstPoints, HomographyEstimator estimator) {
+        if (srcPoints.length < 4 || dstPoints.length != srcPoints.length) {
+            System.out.println("INVALID POINTS!");
+            return null;
+        }
+        if (srcPoints.length > 4)
+            return estimator.estimate(srcPoints, dstPoints);
         double[][] A = new double[8][8];
         double[] b = new double[8];
         for (int i = 0; i < 4; i++) {
@@ -1193,8 +1912,22 @@ class ImageManager {
         return gaussianElimination(A, b);
     }
 
+    // Homography of many pairs by normalized DLT inside RANSAC, or PROSAC when every pair
+    // has a quality (higher is better), pairs further than threshold pixels are left out
+    public double[] estimateHomography(double[][] srcPoints, double[][] dstPoints, double[] quality, double threshold) {
+        HomographyEstimator estimator = new HomographyEstimator(threshold, RANSAC_CONFIDENCE, RANSAC_ITERATIONS,
+                RANSAC_SEED);
+        return estimator.estimate(srcPoints, dstPoints, quality);
+    }
+
     public double[] gaussianElimination(double[][] A, double[] b) {
         int n = b.length;
+        double scale = 0;
+        for (double[] row : A) {
+            for (double value : row) {
+                scale = Math.max(scale, Math.abs(value));
+            }
+        }
         for (int i = 0; i < n; i++) {
             // Pivoting
             int max = i;
@@ -1211,6 +1944,11 @@ class ImageManager {
             double t = b[i];
             b[i] = b[max];
             b[max] = t;
+            // no pivot left, the points are degenerate (three of them on a line)
+            if (Math.abs(A[i][i]) <= 1e-12 * scale) {
+                System.out.println("SINGULAR MATRIX!");
+                return null;
+            }
             // Normalize the row
             for (int k = i + 1; k < n; k++) {
 
@@ -1271,106 +2009,155 @@ class ImageManager {
     }
 
     public void applyHomography(double[] H) {
-        BufferedImage output = new BufferedImage(width, height, img.getType());
-        double[] invH = invertHomography(H);
-        // Iterate over every pixel in the destination image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                // Apply the inverse of the homography to find the corresponding source pixel
-                double[] sourcePoint = applyHomographyToPoint(invH, x, y);
-                int srcX = (int) Math.round(sourcePoint[0]);
-                int srcY = (int) Math.round(sourcePoint[1]);
-                // Check if the calculated source coordinates are within the source image bounds
-
-                if (srcX >= 0 && srcX < width && srcY >= 0 && srcY < height) {
-                    // Copy the pixel from the source image to the destination image
-                    Color color = new Color(img.getRGB(srcX, srcY));
-                    output.setRGB(x, y, color.getRGB());
-                } else {
-                    // If out of bounds, set the destination pixel to a default color
-                    output.setRGB(x, y, Color.BLACK.getRGB());
-                }
-            }
+        applyHomography(H, width, height, Warp.NEAREST);
+    }
+
+    // Warp the image through H into an outWidth x outHeight image, sampled with
+    // Warp.NEAREST, Warp.BILINEAR or Warp.BICUBIC
+    public void applyHomography(double[] H, int outWidth, int outHeight, int interpolation) {
+        if (img == null)
+            return;
+        applyPointOperations();
+        if (H == null) {
+            System.out.println("INVALID HOMOGRAPHY!");
+            return;
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, output.getRGB(x, y));
-            }
+        if (outWidth <= 0 || outHeight <= 0) {
+            System.out.println("INVALID SIZE!");
+            return;
+        }
+        if (interpolation < Warp.NEAREST || interpolation > Warp.BICUBIC) {
+            System.out.println("INVALID INTERPOLATION!");
+            return;
         }
+        // every destination pixel is mapped back to the source by the inverse, through a
+        // warp compiled once per homography and size
+        img = Warp.apply(img, invertHomography(H), outWidth, outHeight, interpolation);
+        width = outWidth;
+        height = outHeight;
     }
 
+    // Median of every channel on its own, the border where the window does not fit
+    // is left as it is
     public void median(int size) {
-        int filterSize = size; // Size of the median filter, can be 3x3, 5x5, etc.
-        int offset = filterSize / 2;
-
-        for (int y = offset; y < img.getHeight() - offset; y++) {
-            for (int x = offset; x < img.getWidth() - offset; x++) {
-                int[] neighborhood = new int[filterSize * filterSize];
-                int index = 0;
-
-                // Collect the pixels in the neighborhood
-                for (int i = -offset; i <= offset; i++) {
-                    for (int j = -offset; j <= offset; j++) {
-                        neighborhood[index++] = img.getRGB(x + j, y + i);
-                    }
-                }
+        orderStatisticFilter(size, false, size / 2, window -> window.valueAtRank(window.count() / 2));
+    }
 
-                // Sort the neighborhood pixels to find the median
-                java.util.Arrays.sort(neighborhood);
+    public void minFilter(int size) {
+        orderStatisticFilter(size, window -> window.valueAtRank(0));
+    }
 
-                // Set the median value to the output image
-                img.setRGB(x, y, neighborhood[neighborhood.length / 2]);
-            }
+    public void maxFilter(int size) {
+        orderStatisticFilter(size, window -> window.valueAtRank(window.count() - 1));
+    }
+
+    // percent 0 is the min filter, 50 the median and 100 the max filter
+    public void percentileFilter(int size, double percent) {
+        if (percent < 0 || percent > 100) {
+            System.out.println("INVALID PERCENT!");
+            return;
         }
+        orderStatisticFilter(size,
+                window -> window.valueAtRank((int) Math.round(percent / 100 * (window.count() - 1))));
     }
 
-    public void averagingFilter(int size) {
+    public void midpointFilter(int size) {
+        orderStatisticFilter(size,
+                window -> (window.valueAtRank(0) + window.valueAtRank(window.count() - 1)) / 2);
+    }
+
+    // Replace every pixel of every channel by a statistic of the size x size window around it,
+    // the window is clipped to the image
+    public void orderStatisticFilter(int size, RankFilter.Statistic statistic) {
+        orderStatisticFilter(size, false, 0, statistic);
+    }
+
+    // zeroPadding counts the pixels out of the image as zeros, the frame of the given
+    // border width keeps its original values
+    private void orderStatisticFilter(int size, boolean zeroPadding, int border, RankFilter.Statistic statistic) {
         if (img == null)
             return;
+        applyPointOperations();
         if (size % 2 == 0) {
             System.out.println("Size Invalid: must be odd number!");
             return;
         }
-        BufferedImage tempBuf = new BufferedImage(width, height, img.getType());
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int sumRed = 0, sumGreen = 0, sumBlue = 0;
-                for (int i = y - size / 2; i <= y + size / 2; i++) {
-                    for (int j = x - size / 2; j <= x + size / 2; j++) {
-                        if (i >= 0 && i < height && j >= 0 && j < width) {
-                            int color = img.getRGB(j, i);
-                            int r = (color >> 16) & 0xff;
-                            int g = (color >> 8) & 0xff;
-                            int b = color & 0xff;
-                            sumRed += r;
-                            sumGreen += g;
-                            sumBlue += b;
-                        }
-                    }
+        boolean binary = img.mode == PixelRaster.BINARY;
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            int[] src = planes[c];
+            int[] dst = RankFilter.filter(src, width, height, size, zeroPadding, statistic);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    if (y < border || y >= height - border || x < border || x >= width - border)
+                        dst[i] = src[i];
+                    binary &= dst[i] == 0 || dst[i] == 255;
                 }
-                sumRed /= (size * size);
-                sumRed = sumRed > 255 ? 255 : sumRed;
-                sumRed = sumRed < 0 ? 0 : sumRed;
-                sumGreen /= (size * size);
-                sumGreen = sumGreen > 255 ? 255 : sumGreen;
-                sumGreen = sumGreen < 0 ? 0 : sumGreen;
-                sumBlue /= (size * size);
-                sumBlue = sumBlue > 255 ? 255 : sumBlue;
-                sumBlue = sumBlue < 0 ? 0 : sumBlue;
-                int newColor = (sumRed << 16) | (sumGreen << 8) | sumBlue;
-                tempBuf.setRGB(x, y, newColor);
             }
+            planes[c] = dst;
         }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                img.setRGB(x, y, tempBuf.getRGB(x, y));
-            }
+        img.setPlanes(planes);
+        // a rank of black and white pixels is black or white
+        if (binary)
+            img.toBinary(128);
+    }
+
+    public void averagingFilter(int size) {
+        if (img == null)
+            return;
+        applyPointOperations();
+        if (size % 2 == 0) {
+            System.out.println("Size Invalid: must be odd number!");
+            return;
+        }
+        int[][] planes = img.toPlanes();
+        for (int c = 0; c < planes.length; c++) {
+            planes[c] = averagingPlane(planes[c], size);
         }
+        img.setPlanes(planes);
+    }
+
+    // window sums from the integral image, the cost does not depend on the size
+    private int[] averagingPlane(int[] src, int size) {
+        IntegralImage integral = new IntegralImage(src, width, height, false);
+        int half = size / 2;
+        int[] tempBuf = new int[width * height];
+        TileExecutor.rows(height, 0, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    long sum = integral.sum(x - half, y - half, x + half, y + half);
+                    sum /= (size * size);
+                    sum = sum > 255 ? 255 : sum;
+                    sum = sum < 0 ? 0 : sum;
+                    tempBuf[y * width + x] = (int) sum;
+                }
+            }
+        });
+        return tempBuf;
     }
 
     // After this line is my code that add in this Final Quest
     // Detect regions in the binary image using connected component labeling
     public ArrayList<int[]> detectRegions(int threshold) {
+        applyPointOperations();
+        ArrayList<int[]> point3;
+        // A binary image is labeled a run of pixels at a time
+        if (img.mode == PixelRaster.BINARY)
+            point3 = detectRegionsBinary(threshold);
+        else
+            point3 = detectRegionsByPixel(threshold);
+        // Sort ArrayList by the first element of each array to classify from left to right
+        Collections.sort(point3, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] arr1, int[] arr2) {
+                return Integer.compare(arr1[0], arr2[0]);
+            }
+        });
+        return point3;
+    }
+
+    private ArrayList<int[]> detectRegionsByPixel(int threshold) {
         boolean[][] visited = new boolean[height][width];
         ArrayList<ArrayList<Point>> regions = new ArrayList<>();
         ArrayList<int[]> point3 = new ArrayList<>();
@@ -1390,18 +2177,12 @@ class ImageManager {
                 }
             }
         }
-        // Sort ArrayList by the first element of each array to classify from left to right
-        Collections.sort(point3, new Comparator<int[]>() {
-            @Override
-            public int compare(int[] arr1, int[] arr2) {
-                return Integer.compare(arr1[0], arr2[0]);
-            }
-        });
         return point3;
     }
 
     // Find all black pixel in region
     public int[] floodFill(boolean[][] visited, int startX, int startY, ArrayList<Point> region, int[] point) {
+        applyPointOperations();
         // Stack to store points for processing
         Stack<Point> stack = new Stack<>();
         stack.push(new Point(startX, startY));
@@ -1435,6 +2216,98 @@ class ImageManager {
 
         return point;
     }
+
+    // Same labeling on a binary image working on runs of black pixels, each run is
+    // found and marked with word operations instead of pixel by pixel
+    private ArrayList<int[]> detectRegionsBinary(int threshold) {
+        int words = img.words;
+        long[] black = img.invertedBits();
+        long[] visited = new long[black.length];
+        ArrayList<int[]> point3 = new ArrayList<>();
+        int[] stack = new int[64];
+        for (int y = 0; y < height; y++) {
+            int row = y * words;
+            for (int k = 0; k < words; k++) {
+                long free;
+                while ((free = black[row + k] & ~visited[row + k]) != 0) {
+                    int x = (k << 6) + Long.numberOfTrailingZeros(free);
+                    // {maxX, minY, maxY, pixel count}
+                    int[] point = new int[] { x, y, y, 0 };
+                    int top = 0;
+                    stack[top++] = x;
+                    stack[top++] = y;
+                    while (top > 0) {
+                        int py = stack[--top];
+                        int px = stack[--top];
+                        int pRow = py * words;
+                        if ((visited[pRow + (px >> 6)] & (1L << px)) != 0)
+                            continue;
+                        int xl = runStart(black, visited, pRow, px);
+                        int xr = runEnd(black, visited, pRow, words, px) - 1;
+                        PixelRaster.fillBits(visited, pRow, xl, xr + 1, true);
+                        point[0] = Math.max(point[0], xr);
+                        point[1] = Math.min(point[1], py);
+                        point[2] = Math.max(point[2], py);
+                        point[3] += xr - xl + 1;
+                        // one seed for every run touching this one in the rows above and below
+                        for (int ny = py - 1; ny <= py + 1; ny += 2) {
+                            if (ny < 0 || ny >= height)
+                                continue;
+                            int nRow = ny * words;
+                            int nx = nextFree(black, visited, nRow, words, xl);
+                            while (nx <= xr) {
+                                if (top + 2 > stack.length)
+                                    stack = Arrays.copyOf(stack, stack.length * 2);
+                                stack[top++] = nx;
+                                stack[top++] = ny;
+                                nx = nextFree(black, visited, nRow, words, runEnd(black, visited, nRow, words, nx));
+                            }
+                        }
+                    }
+                    if (point[3] < threshold)
+                        continue;
+                    point3.add(new int[] { point[0], point[1], point[2] });
+                }
+            }
+        }
+        return point3;
+    }
+
+    // First unvisited black pixel at or after x, or width when there is none
+    private int nextFree(long[] black, long[] visited, int row, int words, int x) {
+        for (int k = x >> 6; k < words; k++) {
+            long free = black[row + k] & ~visited[row + k];
+            if (k == x >> 6)
+                free &= -1L << x;
+            if (free != 0)
+                return (k << 6) + Long.numberOfTrailingZeros(free);
+        }
+        return width;
+    }
+
+    // End (exclusive) of the run of unvisited black pixels containing x
+    private int runEnd(long[] black, long[] visited, int row, int words, int x) {
+        for (int k = x >> 6; k < words; k++) {
+            long stop = ~(black[row + k] & ~visited[row + k]);
+            if (k == x >> 6)
+                stop &= -1L << x;
+            if (stop != 0)
+                return Math.min((k << 6) + Long.numberOfTrailingZeros(stop), width);
+        }
+        return width;
+    }
+
+    // Start of the run of unvisited black pixels containing x
+    private int runStart(long[] black, long[] visited, int row, int x) {
+        for (int k = x >> 6; k >= 0; k--) {
+            long stop = ~(black[row + k] & ~visited[row + k]);
+            if (k == x >> 6)
+                stop &= (x & 63) == 63 ? -1L : (1L << (x + 1)) - 1;
+            if (stop != 0)
+                return (k << 6) + 63 - Long.numberOfLeadingZeros(stop) + 1;
+        }
+        return 0;
+    }
     
     // Check that pixel is black
     private boolean isBlack(int color) {
@@ -1446,35 +2319,21 @@ class ImageManager {
     }
 
     public void fillEdgeOfImage(int size) {
+        applyPointOperations();
         int newColor = (255 << 16) | (255 << 8) | 255;
         //Fill the top edge
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < img.getWidth(); x++) {
-                img.setRGB(x, y, newColor);
-            }
-        }
+        img.fillRect(0, 0, width, size, newColor);
         //Fill the left edge
-        for (int x = 0; x < size; x++) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                img.setRGB(x, y, newColor);
-            }
-        }
+        img.fillRect(0, 0, size, height, newColor);
         //Fill the right edge
-        for (int x = img.getWidth() - size; x < img.getWidth(); x++) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                img.setRGB(x, y, newColor);
-            }
-        }
+        img.fillRect(width - size, 0, size, height, newColor);
         //Fill the bottom edge
-        for (int x = 0; x < img.getWidth(); x++) {
-            for (int y = img.getHeight() - size; y < img.getHeight(); y++) {
-                img.setRGB(x, y, newColor);
-            }
-        }
+        img.fillRect(0, height - size, width, size, newColor);
     }
     
     // Classify each region
     public ArrayList<Integer> classify(ArrayList<int[]> region){
+        applyPointOperations();
         ArrayList<Integer> password = new ArrayList<>();
         int digitCount = 1;
         for(int[] digitInfo : region) {
@@ -1483,8 +2342,10 @@ class ImageManager {
             int topScore = 0;
             for(int i=0;i<10;i++) {
                 try {
-                    BufferedImage pattern = ImageIO.read(new File("images/Pattern/" + i + ".png")); // Get pattern Image
-                    BufferedImage downScalePattern = downscaleImageNearestNeighbor(pattern, digitInfo); // Make pattern image fit in size of the region
+                    PixelRaster pattern = new PixelRaster(ImageIO.read(new File("images/Pattern/" + i + ".png"))); // Get pattern Image
+                    if (img.mode == PixelRaster.BINARY && pattern.isTwoLevel())
+                        pattern.toBinary(128); // Compare 64 pixels at a time against a binary image
+                    PixelRaster downScalePattern = downscaleImageNearestNeighbor(pattern, digitInfo); // Make pattern image fit in size of the region
                     int currentScore = scoring(downScalePattern, digitInfo); // Process the score of this class
                     System.out.println("Class " + i + " have score " + currentScore);
                     if(currentScore > topScore) {
@@ -1504,12 +2365,27 @@ class ImageManager {
     }
 
     // Scoreing each class by compare each pixel
-    private int scoring(BufferedImage pattern, int[] digitInfo) {
+    private int scoring(PixelRaster pattern, int[] digitInfo) {
         int match = 0;
-        int minXOriginal = digitInfo[0] - pattern.getWidth();
+        int minXOriginal = digitInfo[0] - pattern.width;
         int minYOriginal = digitInfo[1];
-        for(int y = 0; y < pattern.getHeight(); y++) {
-            for(int x = 0; x < pattern.getWidth(); x++) {
+        if (minXOriginal < 0 || minYOriginal < 0 || minXOriginal + pattern.width > width
+                || minYOriginal + pattern.height > height)
+            throw new ArrayIndexOutOfBoundsException("Pattern does not fit inside the image");
+        if (img.mode == PixelRaster.BINARY && pattern.mode == PixelRaster.BINARY) {
+            long last = pattern.lastWordMask();
+            for (int y = 0; y < pattern.height; y++) {
+                int row = (minYOriginal + y) * img.words;
+                for (int k = 0; k < pattern.words; k++) {
+                    long same = ~(pattern.bits[y * pattern.words + k]
+                            ^ PixelRaster.wordAt(img.bits, row, img.words, minXOriginal + (k << 6)));
+                    match += Long.bitCount(k == pattern.words - 1 ? same & last : same);
+                }
+            }
+            return match;
+        }
+        for(int y = 0; y < pattern.height; y++) {
+            for(int x = 0; x < pattern.width; x++) {
                 if(pattern.getRGB(x, y) == img.getRGB(minXOriginal + x, minYOriginal + y)) {
                     match++;
                 }
@@ -1520,17 +2396,16 @@ class ImageManager {
     }
 
     // Make pattern image fit in region size
-    private BufferedImage downscaleImageNearestNeighbor(BufferedImage patternImage, int[] point) {
-        double aspectRatio = (double) patternImage.getWidth() / patternImage.getHeight();
+    private PixelRaster downscaleImageNearestNeighbor(PixelRaster patternImage, int[] point) {
+        double aspectRatio = (double) patternImage.width / patternImage.height;
         int newHeight = point[2] - point[1];
         int newWidth = (int) (newHeight * aspectRatio);
 
-        // Create a new buffered image for the downscaled image
-        BufferedImage downscaledImage = new BufferedImage(newWidth, newHeight, patternImage.getType());
+        int[] source = new int[newWidth * newHeight];
 
         // Calculate the scaling factors
-        double xScale = (double) patternImage.getWidth() / newWidth;
-        double yScale = (double) patternImage.getHeight() / newHeight;
+        double xScale = (double) patternImage.width / newWidth;
+        double yScale = (double) patternImage.height / newHeight;
 
         // Nearest-neighbor interpolation
         for (int y = 0; y < newHeight; y++) {
@@ -1538,13 +2413,22 @@ class ImageManager {
                 int nearestX = (int) (x * xScale);
                 int nearestY = (int) (y * yScale);
 
-                int pixelColor = patternImage.getRGB(nearestX, nearestY);
-
-                downscaledImage.setRGB(x, y, pixelColor);
+                source[y * newWidth + x] = nearestY * patternImage.width + nearestX;
             }
         }
 
-        return downscaledImage;
+        // Create a new raster for the downscaled image
+        return patternImage.gather(newWidth, newHeight, source);
+    }
+
+    // The points nearest to the top left, top right, bottom right and bottom left corners of
+    // the image, each found from the cells around its corner instead of a scan of every point
+    public Point[] getNearestCornerPoints(PointGrid index) {
+        if (index == null || index.size() == 0) {
+            throw new IllegalArgumentException("The index of points cannot be null or empty.");
+        }
+        return new Point[] { index.nearest(0, 0), index.nearest(width - 1, 0), index.nearest(width - 1, height - 1),
+                index.nearest(0, height - 1) };
     }
 
     public Point[] getCornerPoints(ArrayList<Point> points) {
@@ -1585,46 +2469,29 @@ class ImageManager {
         return fft;
     }
 
-    public BufferedImage getImage() {
-        return img;
+    // Summed-area tables of the current gray values for window statistics
+    public IntegralImage getIntegralImage() {
+        applyPointOperations();
+        return new IntegralImage(img.grayPlane(), width, height);
     }
-}
 
-class StructuringElement {
-    public int[][] elements;
-    public int width, height;
-    public Point origin;
-    public ArrayList<Point> ignoreElements;
-
-    public StructuringElement(int width, int height, Point origin) {
-        this.width = width;
-        this.height = height;
-        if (origin.x < 0 || origin.x >= width || origin.y < 0 || origin.y >= height) {
-            this.origin = new Point();
-        } else {
-            this.origin = new Point(origin);
-        }
-        ignoreElements = new ArrayList<>();
-        elements = new int[width][height];
+    // warps compiled by applyHomography, shared by every image, with their hit rate
+    public static WarpCache getWarpCache() {
+        return Warp.cache;
     }
-}
-
-class Point {
-    public int x;
-    public int y;
 
-    public Point(Point a) {
-        this.x = a.x;
-        this.y = a.y;
+    // Snapshot of the current pixels in the type the image was read with
+    public BufferedImage getImage() {
+        applyPointOperations();
+        return img.toBufferedImage(type);
     }
 
-    public Point() {
-        x = 0;
-        y = 0;
+    public PixelRaster getRaster() {
+        applyPointOperations();
+        return img;
     }
 
-    public Point(int x, int y) {
-        this.x = x;
-        this.y = y;
+    public int getType() {
+        return type;
     }
 }
@@ -0,0 +1,106 @@
+// Summed-area tables of a plane and of its squares
+// Any window sum, mean or variance then costs four lookups whatever the window size,
+// so one table can serve a box filter and every local threshold on the same plane.
+// The sums are kept as int when the sum of the whole plane fits, which halves the table,
+// and the squares, which need long, only when they are asked for.
+class IntegralImage {
+    public final int width, height;
+    // (width + 1) x (height + 1), entry (x, y) is the sum of the plane above and left of (x, y)
+    // in sum, or in wideSum when the plane is too large for int sums
+    private final int[] sum;
+    private final long[] wideSum;
+    private final long[] sumSquares;
+
+    public IntegralImage(int[] plane, int width, int height) {
+        this(plane, width, height, true);
+    }
+
+    // without squares, sumSquares and variance are not available
+    public IntegralImage(int[] plane, int width, int height, boolean squares) {
+        this.width = width;
+        this.height = height;
+        int stride = width + 1;
+        long largest = 0;
+        for (int v : plane) {
+            largest = Math.max(largest, Math.abs((long) v));
+        }
+        boolean narrow = (long) width * height * largest <= Integer.MAX_VALUE;
+        sum = narrow ? new int[stride * (height + 1)] : null;
+        wideSum = narrow ? null : new long[stride * (height + 1)];
+        sumSquares = squares ? new long[stride * (height + 1)] : null;
+        for (int y = 0; y < height; y++) {
+            long rowSum = 0, rowSquares = 0;
+            for (int x = 0; x < width; x++) {
+                long v = plane[y * width + x];
+                rowSum += v;
+                int i = (y + 1) * stride + x + 1;
+                if (narrow)
+                    sum[i] = sum[i - stride] + (int) rowSum;
+                else
+                    wideSum[i] = wideSum[i - stride] + rowSum;
+                if (squares) {
+                    rowSquares += v * v;
+                    sumSquares[i] = sumSquares[i - stride] + rowSquares;
+                }
+            }
+        }
+    }
+
+    // the rectangle (x0, y0) to (x1, y1) inclusive, clipped to the plane
+
+    public long sum(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width - 1);
+        y1 = Math.min(y1, height - 1);
+        if (x0 > x1 || y0 > y1)
+            return 0;
+        if (wideSum != null)
+            return rectangle(wideSum, x0, y0, x1, y1);
+        int stride = width + 1;
+        return sum[(y1 + 1) * stride + x1 + 1] - sum[y0 * stride + x1 + 1] - sum[(y1 + 1) * stride + x0]
+                + sum[y0 * stride + x0];
+    }
+
+    public long sumSquares(int x0, int y0, int x1, int y1) {
+        if (sumSquares == null)
+            throw new IllegalStateException("Integral image built without squares");
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width - 1);
+        y1 = Math.min(y1, height - 1);
+        if (x0 > x1 || y0 > y1)
+            return 0;
+        return rectangle(sumSquares, x0, y0, x1, y1);
+    }
+
+    // number of plane pixels inside the rectangle
+    public int count(int x0, int y0, int x1, int y1) {
+        int w = Math.min(x1, width - 1) - Math.max(x0, 0) + 1;
+        int h = Math.min(y1, height - 1) - Math.max(y0, 0) + 1;
+        return w > 0 && h > 0 ? w * h : 0;
+    }
+
+    // mean and variance over the pixels of the rectangle that are inside the plane
+
+    public double mean(int x0, int y0, int x1, int y1) {
+        int n = count(x0, y0, x1, y1);
+        return n == 0 ? 0 : (double) sum(x0, y0, x1, y1) / n;
+    }
+
+    public double variance(int x0, int y0, int x1, int y1) {
+        int n = count(x0, y0, x1, y1);
+        if (n == 0)
+            return 0;
+        double mean = (double) sum(x0, y0, x1, y1) / n;
+        double variance = (double) sumSquares(x0, y0, x1, y1) / n - mean * mean;
+        return variance < 0 ? 0 : variance;
+    }
+
+    // the rectangle already clipped to the plane
+    private long rectangle(long[] table, int x0, int y0, int x1, int y1) {
+        int stride = width + 1;
+        return table[(y1 + 1) * stride + x1 + 1] - table[y0 * stride + x1 + 1]
+                - table[(y1 + 1) * stride + x0] + table[y0 * stride + x0];
+    }
+}
@@ -32,7 +32,7 @@ public class Main {
                 { 0, 600 } // bottom-left
         };
         double[] tmp = im.calculateHomography(srcPoints, dstPoints);
-        im.applyHomography(tmp);
+        im.applyHomography(tmp, 800, 600, Warp.NEAREST); // Warp straight to the 800 x 600 page
         
         // Denoise part
         im.averagingFilter(5);
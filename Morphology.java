@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+// A StructuringElement compiled once into the offsets of the elements it uses
+// Flat erosion and dilation over a rectangular SE, lines included, go through van Herk /
+// Gil-Werman, which costs three comparisons per pixel and direction whatever the SE size.
+// Other shapes take the min or max over one shifted copy of the image per element.
+// Every pass runs as row bands through TileExecutor.
+class Morphology {
+    // elements that are not ignored, as offsets from the origin, and their values
+    final int[] dx, dy, value;
+    // extent of the SE around its origin
+    final int left, right, up, down;
+    // no element is ignored, the SE is its whole bounding box
+    final boolean rectangular;
+    // value of every used element, -1 when they differ
+    final int uniform;
+    // smallest value of the used elements
+    final int minValue;
+    private final boolean[] used;
+    private final int seWidth;
+
+    Morphology(StructuringElement se) {
+        seWidth = se.width;
+        left = se.origin.x;
+        right = se.width - se.origin.x - 1;
+        up = se.origin.y;
+        down = se.height - se.origin.y - 1;
+        used = new boolean[se.width * se.height];
+        int n = 0;
+        for (int seY = 0; seY < se.height; seY++) {
+            for (int seX = 0; seX < se.width; seX++) {
+                used[seY * se.width + seX] = !se.ignoreElements.contains(new Point(seX, seY));
+                if (used[seY * se.width + seX])
+                    n++;
+            }
+        }
+        dx = new int[n];
+        dy = new int[n];
+        value = new int[n];
+        int min = Integer.MAX_VALUE, same = -1;
+        n = 0;
+        for (int seY = 0; seY < se.height; seY++) {
+            for (int seX = 0; seX < se.width; seX++) {
+                if (!used[seY * se.width + seX])
+                    continue;
+                dx[n] = seX - left;
+                dy[n] = seY - up;
+                value[n] = se.elements[seX][seY];
+                min = Math.min(min, value[n]);
+                same = n == 0 || same == value[n] ? value[n] : -2;
+                n++;
+            }
+        }
+        rectangular = n == se.width * se.height;
+        uniform = same < 0 ? -1 : same;
+        minValue = min;
+    }
+
+    // whether the element at (seX, seY) of the SE is used
+    boolean uses(int seX, int seY) {
+        return used[seY * seWidth + seX];
+    }
+
+    // Flat erosion, the min over the SE placed at every pixel
+    int[] erode(int[] src, int width, int height) {
+        if (rectangular)
+            return windowMin(src, width, height, -left, right, -up, down);
+        return shifted(src, width, height, false);
+    }
+
+    // Flat dilation, the max over the reflected SE placed at every pixel
+    int[] dilate(int[] src, int width, int height) {
+        if (rectangular)
+            return windowMax(src, width, height, -right, left, -down, up);
+        return shifted(src, width, height, true);
+    }
+
+    // True where the SE window is inside the image and every element equals the pixel under it
+    boolean[] fits(int[] src, int width, int height) {
+        boolean[] fit = new boolean[width * height];
+        if (dx.length == 0) {
+            fillInside(fit, width, height, left, right, up, down);
+            return fit;
+        }
+        if (rectangular && uniform >= 0) {
+            // every pixel of the window equals the value exactly when its min and max do
+            int[] min = windowMin(src, width, height, -left, right, -up, down);
+            int[] max = windowMax(src, width, height, -left, right, -up, down);
+            for (int y = up; y < height - down; y++) {
+                for (int x = left; x < width - right; x++) {
+                    int i = y * width + x;
+                    fit[i] = min[i] == uniform && max[i] == uniform;
+                }
+            }
+            return fit;
+        }
+        TileExecutor.rows(height, Math.max(up, down), (from, to) -> {
+            for (int y = Math.max(from, up); y < Math.min(to, height - down); y++) {
+                for (int x = left; x < width - right; x++) {
+                    int i = y * width + x;
+                    boolean all = true;
+                    for (int n = 0; n < dx.length && all; n++) {
+                        all = src[i + dy[n] * width + dx[n]] == value[n];
+                    }
+                    fit[i] = all;
+                }
+            }
+        });
+        return fit;
+    }
+
+    // True where the reflected SE window is inside the image and some element equals the pixel
+    // under it
+    boolean[] hits(int[] src, int width, int height) {
+        boolean[] hit = new boolean[width * height];
+        if (rectangular && (uniform == 0 || uniform == 255)) {
+            // some pixel is white when the max is, black when the min is
+            int[] extreme = uniform == 255 ? windowMax(src, width, height, -right, left, -down, up)
+                    : windowMin(src, width, height, -right, left, -down, up);
+            for (int y = down; y < height - up; y++) {
+                for (int x = right; x < width - left; x++) {
+                    hit[y * width + x] = extreme[y * width + x] == uniform;
+                }
+            }
+            return hit;
+        }
+        TileExecutor.rows(height, Math.max(up, down), (from, to) -> {
+            for (int y = Math.max(from, down); y < Math.min(to, height - up); y++) {
+                for (int x = right; x < width - left; x++) {
+                    int i = y * width + x;
+                    boolean any = false;
+                    for (int n = 0; n < dx.length && !any; n++) {
+                        any = src[i - dy[n] * width - dx[n]] == value[n];
+                    }
+                    hit[i] = any;
+                }
+            }
+        });
+        return hit;
+    }
+
+    private static void fillInside(boolean[] mask, int width, int height, int left, int right, int up, int down) {
+        for (int y = up; y < height - down; y++) {
+            for (int x = left; x < width - right; x++) {
+                mask[y * width + x] = true;
+            }
+        }
+    }
+
+    // min or max over one shifted copy of the image per element, pixels outside of the
+    // image are left out
+    private int[] shifted(int[] src, int width, int height, boolean max) {
+        int[] dst = new int[width * height];
+        TileExecutor.rows(height, Math.max(up, down), (from, to) -> {
+            Arrays.fill(dst, from * width, to * width, max ? 0 : 255);
+            for (int n = 0; n < dx.length; n++) {
+                // the dilation reads the reflected SE
+                int ox = max ? -dx[n] : dx[n], oy = max ? -dy[n] : dy[n];
+                int x0 = Math.max(0, -ox), x1 = Math.min(width, width - ox);
+                for (int y = Math.max(from, -oy); y < Math.min(to, height - oy); y++) {
+                    int d = y * width, s = (y + oy) * width + ox;
+                    if (max) {
+                        for (int x = x0; x < x1; x++) {
+                            if (src[s + x] > dst[d + x])
+                                dst[d + x] = src[s + x];
+                        }
+                    } else {
+                        for (int x = x0; x < x1; x++) {
+                            if (src[s + x] < dst[d + x])
+                                dst[d + x] = src[s + x];
+                        }
+                    }
+                }
+            }
+        });
+        return dst;
+    }
+
+    // min and max over the window [x + x0, x + x1] x [y + y0, y + y1] of every pixel, clipped
+    // to the image, x0 and y0 are at most 0 and x1 and y1 at least 0
+
+    static int[] windowMin(int[] src, int width, int height, int x0, int x1, int y0, int y1) {
+        return window(src, width, height, x0, x1, y0, y1, false);
+    }
+
+    static int[] windowMax(int[] src, int width, int height, int x0, int x1, int y0, int y1) {
+        return window(src, width, height, x0, x1, y0, y1, true);
+    }
+
+    private static int[] window(int[] src, int width, int height, int x0, int x1, int y0, int y1, boolean max) {
+        int[] rows = new int[width * height];
+        TileExecutor.rows(height, 0, (from, to) -> {
+            int[] g = new int[width + x1 - x0], h = new int[width + x1 - x0];
+            for (int y = from; y < to; y++) {
+                line(src, y * width, rows, y * width, width, 1, x0, x1, 0, width, max, g, h);
+            }
+        });
+        // the columns of a band read its halo rows from the finished row pass
+        int[] dst = new int[width * height];
+        TileExecutor.rows(height, Math.max(-y0, y1), (from, to) -> {
+            int[] g = new int[to - from + y1 - y0], h = new int[to - from + y1 - y0];
+            for (int x = 0; x < width; x++) {
+                line(rows, x, dst, x, height, width, y0, y1, from, to, max, g, h);
+            }
+        });
+        return dst;
+    }
+
+    // van Herk / Gil-Werman over one line of n values at the given stride: dst[i] is the min
+    // or max of src[i + a .. i + b], for i from lo (inclusive) to hi (exclusive)
+    // Position j of the padded line holds value lo + j + a, or the identity outside of the
+    // line. Splitting it in blocks of the window length k, every window is the suffix of one
+    // block joined with the prefix of the next, both running values computed once per line.
+    private static void line(int[] src, int srcOff, int[] dst, int dstOff, int n, int stride,
+            int a, int b, int lo, int hi, boolean max, int[] g, int[] h) {
+        int k = b - a + 1;
+        if (k == 1) {
+            for (int i = lo; i < hi; i++) {
+                dst[dstOff + i * stride] = src[srcOff + i * stride];
+            }
+            return;
+        }
+        int length = hi - lo + k - 1;
+        int identity = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int j = 0; j < length; j++) {
+            int i = lo + j + a;
+            int v = i >= 0 && i < n ? src[srcOff + i * stride] : identity;
+            if (j % k == 0)
+                g[j] = v;
+            else
+                g[j] = max ? Math.max(g[j - 1], v) : Math.min(g[j - 1], v);
+        }
+        for (int j = length - 1; j >= 0; j--) {
+            int i = lo + j + a;
+            int v = i >= 0 && i < n ? src[srcOff + i * stride] : identity;
+            if (j % k == k - 1 || j == length - 1)
+                h[j] = v;
+            else
+                h[j] = max ? Math.max(h[j + 1], v) : Math.min(h[j + 1], v);
+        }
+        for (int j = 0; j < hi - lo; j++) {
+            dst[dstOff + (lo + j) * stride] = max ? Math.max(h[j], g[j + k - 1]) : Math.min(h[j], g[j + k - 1]);
+        }
+    }
+}
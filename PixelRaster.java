@@ -0,0 +1,479 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// Flat pixel storage used by ImageManager
+// RGB keeps one packed 0xRRGGBB int per pixel, GRAY one byte per pixel and
+// BINARY one bit per pixel (1 = white, 0 = black) packed into 64 bit words,
+// every row starting on a new word and the unused high bits of the last word kept 0
+// Index of pixel (x, y) is y * width + x, for BINARY the bit x & 63 of bits[y * words + (x >> 6)]
+class PixelRaster {
+    public static final int RGB = 0;
+    public static final int GRAY = 1;
+    public static final int BINARY = 2;
+
+    public int width;
+    public int height;
+    public int mode;
+    public int[] pixels;
+    public byte[] gray;
+    public long[] bits;
+    public int words;
+
+    // luminance histogram and the pixel array it was counted from
+    private int[] luminance;
+    private Object luminanceOf;
+
+    public PixelRaster(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public PixelRaster(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.mode = RGB;
+        this.pixels = pixels;
+    }
+
+    public PixelRaster(int width, int height, byte[] gray) {
+        this.width = width;
+        this.height = height;
+        this.mode = GRAY;
+        this.gray = gray;
+    }
+
+    public PixelRaster(int width, int height, long[] bits) {
+        this.width = width;
+        this.height = height;
+        this.mode = BINARY;
+        this.words = wordsPerRow(width);
+        this.bits = bits;
+    }
+
+    public PixelRaster(BufferedImage image) {
+        this(image.getWidth(), image.getHeight());
+        int length = width * height;
+        // Read the backing buffer directly when the layout is the plain one
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            if (data.length == length * 3) {
+                for (int i = 0, p = 0; i < length; i++, p += 3) {
+                    pixels[i] = ((data[p + 2] & 0xff) << 16) | ((data[p + 1] & 0xff) << 8) | (data[p] & 0xff);
+                }
+                return;
+            }
+        }
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (data.length == length) {
+                for (int i = 0; i < length; i++) {
+                    pixels[i] = data[i] & 0xffffff;
+                }
+                return;
+            }
+        }
+        // Any other layout goes through the color model once, in bulk
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+        for (int i = 0; i < length; i++) {
+            pixels[i] &= 0xffffff;
+        }
+    }
+
+    public static int wordsPerRow(int width) {
+        return (width + 63) >> 6;
+    }
+
+    // Empty raster in the same mode
+    public PixelRaster blank(int width, int height) {
+        if (mode == GRAY)
+            return new PixelRaster(width, height, new byte[width * height]);
+        if (mode == BINARY)
+            return new PixelRaster(width, height, new long[wordsPerRow(width) * height]);
+        return new PixelRaster(width, height);
+    }
+
+    public PixelRaster copy() {
+        if (mode == GRAY)
+            return new PixelRaster(width, height, gray.clone());
+        if (mode == BINARY)
+            return new PixelRaster(width, height, bits.clone());
+        return new PixelRaster(width, height, pixels.clone());
+    }
+
+    public int getRGB(int x, int y) {
+        if (mode == GRAY) {
+            int g = gray[y * width + x] & 0xff;
+            return (g << 16) | (g << 8) | g;
+        }
+        if (mode == BINARY)
+            return isWhite(x, y) ? 0xffffff : 0;
+        return pixels[y * width + x];
+    }
+
+    // Low byte of the pixel, which is the gray value once the image is grayscale
+    public int getGray(int x, int y) {
+        if (mode == GRAY)
+            return gray[y * width + x] & 0xff;
+        if (mode == BINARY)
+            return isWhite(x, y) ? 255 : 0;
+        return pixels[y * width + x] & 0xff;
+    }
+
+    // Store a color, moving to a wider mode when the current one can't hold it
+    public void setRGB(int x, int y, int color) {
+        modified();
+        color &= 0xffffff;
+        boolean isGray = ((color >> 16) & 0xff) == (color & 0xff) && ((color >> 8) & 0xff) == (color & 0xff);
+        if (mode == BINARY && (color == 0 || color == 0xffffff)) {
+            setWhite(x, y, color != 0);
+            return;
+        }
+        if (mode != RGB && isGray) {
+            if (mode == BINARY)
+                toGray();
+            gray[y * width + x] = (byte) color;
+            return;
+        }
+        toRGB();
+        pixels[y * width + x] = color;
+    }
+
+    public boolean isWhite(int x, int y) {
+        return (bits[y * words + (x >> 6)] & (1L << x)) != 0;
+    }
+
+    public void setWhite(int x, int y, boolean white) {
+        modified();
+        if (white)
+            bits[y * words + (x >> 6)] |= 1L << x;
+        else
+            bits[y * words + (x >> 6)] &= ~(1L << x);
+    }
+
+    public void fillRect(int x, int y, int w, int h, int color) {
+        int xEnd = Math.min(x + w, width), yEnd = Math.min(y + h, height);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+        if (x >= xEnd || y >= yEnd)
+            return;
+        modified();
+        color &= 0xffffff;
+        if (mode == BINARY && color != 0 && color != 0xffffff)
+            toGray();
+        if (mode == GRAY && ((color >> 16) & 0xff) == (color & 0xff) && ((color >> 8) & 0xff) == (color & 0xff)) {
+            for (int i = y; i < yEnd; i++) {
+                Arrays.fill(gray, i * width + x, i * width + xEnd, (byte) color);
+            }
+            return;
+        }
+        if (mode == BINARY) {
+            for (int i = y; i < yEnd; i++) {
+                fillBits(bits, i * words, x, xEnd, color != 0);
+            }
+            return;
+        }
+        toRGB();
+        for (int i = y; i < yEnd; i++) {
+            Arrays.fill(pixels, i * width + x, i * width + xEnd, color);
+        }
+    }
+
+    // Set or clear bits [from, to) of the row starting at word rowOffset
+    public static void fillBits(long[] bits, int rowOffset, int from, int to, boolean value) {
+        while (from < to) {
+            int k = from >> 6;
+            int end = Math.min(to, (k + 1) << 6);
+            long mask = (end - from == 64) ? -1L : ((1L << (end - from)) - 1) << from;
+            if (value)
+                bits[rowOffset + k] |= mask;
+            else
+                bits[rowOffset + k] &= ~mask;
+            from = end;
+        }
+    }
+
+    // 64 bits of a row starting at bit 'start', bits outside the row read as 0
+    public static long wordAt(long[] bits, int rowOffset, int words, int start) {
+        int k = start >> 6;
+        int s = start & 63;
+        long lo = k >= 0 && k < words ? bits[rowOffset + k] : 0;
+        if (s == 0)
+            return lo;
+        long hi = k + 1 >= 0 && k + 1 < words ? bits[rowOffset + k + 1] : 0;
+        return (lo >>> s) | (hi << (64 - s));
+    }
+
+    // Valid bits of the last word of a row
+    public long lastWordMask() {
+        return (width & 63) == 0 ? -1L : (1L << width) - 1;
+    }
+
+    // Black pixels as set bits, padding kept 0
+    public long[] invertedBits() {
+        return invertedBits(bits);
+    }
+
+    // the complement of a bit plane laid out like this raster's, padding kept 0
+    public long[] invertedBits(long[] bits) {
+        long[] inv = new long[bits.length];
+        long last = lastWordMask();
+        for (int y = 0; y < height; y++) {
+            int row = y * words;
+            for (int k = 0; k < words; k++) {
+                inv[row + k] = ~bits[row + k];
+            }
+            inv[row + words - 1] &= last;
+        }
+        return inv;
+    }
+
+    public void toRGB() {
+        if (mode == RGB)
+            return;
+        int[] rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgb[y * width + x] = getRGB(x, y);
+            }
+        }
+        pixels = rgb;
+        gray = null;
+        bits = null;
+        mode = RGB;
+    }
+
+    // Average of the three channels, the same as ImageManager.convertToGrayscale
+    // A binary image is expanded to 0 and 255 bytes
+    public void toGray() {
+        if (mode == GRAY)
+            return;
+        byte[] g = new byte[width * height];
+        if (mode == RGB) {
+            for (int i = 0; i < g.length; i++) {
+                int color = pixels[i];
+                g[i] = (byte) ((((color >> 16) & 0xff) + ((color >> 8) & 0xff) + (color & 0xff)) / 3);
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    g[y * width + x] = (byte) (isWhite(x, y) ? 255 : 0);
+                }
+            }
+        }
+        gray = g;
+        pixels = null;
+        bits = null;
+        mode = GRAY;
+    }
+
+    // Gray values below threshold become black, the rest white
+    public void toBinary(int threshold) {
+        int w = wordsPerRow(width);
+        long[] b = new long[w * height];
+        if (mode == BINARY) {
+            if (threshold <= 0)
+                for (int y = 0; y < height; y++)
+                    fillBits(b, y * w, 0, width, true);
+            else if (threshold <= 255)
+                b = bits;
+        } else if (mode == RGB) {
+            // gray level and threshold in one pass, looked up by the sum of the channels
+            boolean[] white = new boolean[766];
+            for (int sum = 0; sum < white.length; sum++)
+                white[sum] = sum / 3 >= threshold;
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int color = pixels[row + x];
+                    if (white[((color >> 16) & 0xff) + ((color >> 8) & 0xff) + (color & 0xff)])
+                        b[y * w + (x >> 6)] |= 1L << x;
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    if ((gray[row + x] & 0xff) >= threshold)
+                        b[y * w + (x >> 6)] |= 1L << x;
+                }
+            }
+        }
+        bits = b;
+        words = w;
+        gray = null;
+        pixels = null;
+        mode = BINARY;
+    }
+
+    // True when every pixel is pure black or pure white
+    public boolean isTwoLevel() {
+        if (mode == BINARY)
+            return true;
+        if (mode == GRAY) {
+            for (byte v : gray)
+                if (v != 0 && v != (byte) 255)
+                    return false;
+            return true;
+        }
+        for (int color : pixels)
+            if (color != 0 && color != 0xffffff)
+                return false;
+        return true;
+    }
+
+    // Low byte of every pixel as 0..255 ints
+    public int[] grayPlane() {
+        int[] plane = new int[width * height];
+        if (mode == GRAY) {
+            for (int i = 0; i < plane.length; i++)
+                plane[i] = gray[i] & 0xff;
+        } else if (mode == BINARY) {
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    plane[y * width + x] = isWhite(x, y) ? 255 : 0;
+        } else {
+            for (int i = 0; i < plane.length; i++)
+                plane[i] = pixels[i] & 0xff;
+        }
+        return plane;
+    }
+
+    // Gray level histogram of the low byte of every pixel
+    public int[] histogram() {
+        int[] histogram = new int[256];
+        if (mode == GRAY) {
+            for (byte v : gray)
+                histogram[v & 0xff]++;
+        } else if (mode == BINARY) {
+            int white = 0;
+            for (long w : bits)
+                white += Long.bitCount(w);
+            histogram[255] = white;
+            histogram[0] = width * height - white;
+        } else {
+            for (int color : pixels)
+                histogram[color & 0xff]++;
+        }
+        return histogram;
+    }
+
+    // Histogram of the gray levels toGray would give, without converting the raster
+    // It is counted once and kept until the pixels change, every caller gets its own copy
+    public int[] luminanceHistogram() {
+        Object data = mode == RGB ? pixels : mode == GRAY ? gray : bits;
+        if (luminance == null || luminanceOf != data) {
+            if (mode == RGB) {
+                // counted by the sum of the channels, three sums share every gray level
+                int[] sums = new int[766];
+                for (int color : pixels)
+                    sums[((color >> 16) & 0xff) + ((color >> 8) & 0xff) + (color & 0xff)]++;
+                luminance = new int[256];
+                for (int sum = 0; sum < sums.length; sum++)
+                    luminance[sum / 3] += sums[sum];
+            } else {
+                luminance = histogram();
+            }
+            luminanceOf = data;
+        }
+        return luminance.clone();
+    }
+
+    // Drops the cached histogram, replacing an array is noticed on its own but writing
+    // into one has to be reported
+    public void modified() {
+        luminance = null;
+    }
+
+    // One 0..255 plane per channel, red, green and blue for RGB and a single one otherwise
+    public int[][] toPlanes() {
+        if (mode != RGB)
+            return new int[][] { grayPlane() };
+        int length = width * height;
+        int[] r = new int[length], g = new int[length], b = new int[length];
+        for (int i = 0; i < length; i++) {
+            int color = pixels[i];
+            r[i] = (color >> 16) & 0xff;
+            g[i] = (color >> 8) & 0xff;
+            b[i] = color & 0xff;
+        }
+        return new int[][] { r, g, b };
+    }
+
+    // Inverse of toPlanes, three planes give an RGB raster and one plane a GRAY raster
+    // Values are expected to be clamped to 0..255 already
+    public void setPlanes(int[][] planes) {
+        int length = width * height;
+        if (planes.length == 1) {
+            byte[] g = new byte[length];
+            int[] plane = planes[0];
+            for (int i = 0; i < length; i++)
+                g[i] = (byte) plane[i];
+            gray = g;
+            pixels = null;
+            mode = GRAY;
+        } else {
+            int[] rgb = new int[length];
+            int[] r = planes[0], g = planes[1], b = planes[2];
+            for (int i = 0; i < length; i++)
+                rgb[i] = (r[i] << 16) | (g[i] << 8) | b[i];
+            pixels = rgb;
+            gray = null;
+            mode = RGB;
+        }
+        bits = null;
+    }
+
+    // New raster in the same mode where pixel i is taken from source pixel index[i],
+    // or black when index[i] is negative
+    public PixelRaster gather(int newWidth, int newHeight, int[] index) {
+        PixelRaster out = blank(newWidth, newHeight);
+        if (mode == GRAY) {
+            for (int i = 0; i < index.length; i++)
+                out.gray[i] = index[i] < 0 ? 0 : gray[index[i]];
+        } else if (mode == BINARY) {
+            for (int y = 0; y < newHeight; y++) {
+                for (int x = 0; x < newWidth; x++) {
+                    int src = index[y * newWidth + x];
+                    if (src >= 0 && isWhite(src % width, src / width))
+                        out.bits[y * out.words + (x >> 6)] |= 1L << x;
+                }
+            }
+        } else {
+            for (int i = 0; i < index.length; i++)
+                out.pixels[i] = index[i] < 0 ? 0 : pixels[index[i]];
+        }
+        return out;
+    }
+
+    public BufferedImage toBufferedImage(int type) {
+        if (type == BufferedImage.TYPE_CUSTOM)
+            type = BufferedImage.TYPE_INT_RGB;
+        BufferedImage image = new BufferedImage(width, height, type);
+        int length = width * height;
+        int[] rgb = pixels;
+        if (mode != RGB) {
+            rgb = new int[length];
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    rgb[y * width + x] = getRGB(x, y);
+        }
+        if (type == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0, p = 0; i < length; i++, p += 3) {
+                int color = rgb[i];
+                data[p] = (byte) color;
+                data[p + 1] = (byte) (color >> 8);
+                data[p + 2] = (byte) (color >> 16);
+            }
+        } else if (type == BufferedImage.TYPE_INT_RGB) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(rgb, 0, data, 0, length);
+        } else {
+            image.setRGB(0, 0, width, height, rgb, 0, width);
+        }
+        return image;
+    }
+}
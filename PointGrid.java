@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+
+// Points bucketed on a grid of square cells over the image
+// A query only looks at the cells around its position: nearest grows rings of cells until
+// no unvisited cell can hold a closer point, and anyWithin only reads the cells under its
+// circle, so neither scans every point.
+class PointGrid {
+    private final int cellSize, columns, rows;
+    private final ArrayList<ArrayList<Point>> cells;
+    private int size;
+
+    public PointGrid(int width, int height, int cellSize) {
+        this.cellSize = Math.max(cellSize, 1);
+        columns = Math.max((width + this.cellSize - 1) / this.cellSize, 1);
+        rows = Math.max((height + this.cellSize - 1) / this.cellSize, 1);
+        cells = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(new ArrayList<>());
+        }
+    }
+
+    public PointGrid(int width, int height, int cellSize, ArrayList<Point> points) {
+        this(width, height, cellSize);
+        for (Point p : points) {
+            add(p);
+        }
+    }
+
+    public void add(Point p) {
+        cells.get(row(p.y) * columns + column(p.x)).add(p);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the cell column of x, points outside of the image go to the edge cells
+    private int column(double x) {
+        return (int) Math.min(Math.max(Math.floor(x / cellSize), 0), columns - 1);
+    }
+
+    private int row(double y) {
+        return (int) Math.min(Math.max(Math.floor(y / cellSize), 0), rows - 1);
+    }
+
+    // Whether some point is at most radius away from (x, y)
+    public boolean anyWithin(double x, double y, double radius) {
+        double r2 = radius * radius;
+        for (int cy = row(y - radius); cy <= row(y + radius); cy++) {
+            for (int cx = column(x - radius); cx <= column(x + radius); cx++) {
+                for (Point p : cells.get(cy * columns + cx)) {
+                    double dx = p.x - x, dy = p.y - y;
+                    if (dx * dx + dy * dy <= r2)
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The point closest to (x, y), null when there is none
+    public Point nearest(double x, double y) {
+        if (size == 0)
+            return null;
+        int cx = column(x), cy = row(y);
+        Point best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (int ring = 0;; ring++) {
+            int x0 = cx - ring, x1 = cx + ring, y0 = cy - ring, y1 = cy + ring;
+            for (int j = Math.max(y0, 0); j <= Math.min(y1, rows - 1); j++) {
+                // the top and bottom rows of the ring whole, the others only at both ends
+                boolean edge = j == y0 || j == y1;
+                for (int i = Math.max(x0, 0); i <= Math.min(x1, columns - 1); i = edge || i >= x1 ? i + 1 : x1) {
+                    if (!edge && i != x0 && i != x1)
+                        continue;
+                    for (Point p : cells.get(j * columns + i)) {
+                        double dx = p.x - x, dy = p.y - y;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            best = p;
+                        }
+                    }
+                }
+            }
+            // every cell outside of the rings so far is at least gap away
+            double gap = Double.MAX_VALUE;
+            if (x0 > 0)
+                gap = Math.min(gap, x - (double) x0 * cellSize);
+            if (x1 < columns - 1)
+                gap = Math.min(gap, (double) (x1 + 1) * cellSize - x);
+            if (y0 > 0)
+                gap = Math.min(gap, y - (double) y0 * cellSize);
+            if (y1 < rows - 1)
+                gap = Math.min(gap, (double) (y1 + 1) * cellSize - y);
+            if (gap == Double.MAX_VALUE || (best != null && bestDistance <= gap * gap))
+                return best;
+        }
+    }
+}
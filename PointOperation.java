@@ -0,0 +1,174 @@
+// A chain of per-pixel operations kept as 256 entry lookup tables
+// Each channel goes through its own table, then optionally through the gray conversion of
+// PixelRaster.toGray and one gray table, and the gray result is optionally packed to black
+// and white. Adding an operation composes it into the tables, so a chain of any length is
+// applied to the pixels in a single pass.
+class PointOperation {
+    // red, green and blue tables, used before the gray conversion
+    private final int[][] channel = new int[3][];
+    // gray table, used after it
+    private final int[] gray;
+    private boolean toGray, toBinary, channelIdentity = true, changes;
+
+    // for a raster of the given PixelRaster mode, a binary one stays binary until a table
+    // gives other gray levels than black and white
+    PointOperation(int mode) {
+        for (int c = 0; c < 3; c++) {
+            channel[c] = identity();
+        }
+        gray = identity();
+        toGray = mode != PixelRaster.RGB;
+        toBinary = mode == PixelRaster.BINARY;
+    }
+
+    static int[] identity() {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = v;
+        }
+        return table;
+    }
+
+    boolean isGray() {
+        return toGray;
+    }
+
+    // Average the channels like PixelRaster.toGray
+    void grayscale() {
+        if (!toGray)
+            changes = true;
+        toGray = true;
+    }
+
+    // Map every channel, or the gray level once converted, through table
+    void then(int[] table) {
+        then(table, table, table);
+    }
+
+    void then(int[] red, int[] green, int[] blue) {
+        if (toGray) {
+            // a gray image has a single channel, which the red table stands for
+            compose(gray, red);
+        } else {
+            compose(channel[0], red);
+            compose(channel[1], green);
+            compose(channel[2], blue);
+            channelIdentity = false;
+        }
+        // black and white stays black and white when the table takes both to black or white
+        toBinary = toBinary && toGray && twoLevel(red[0]) && twoLevel(red[255]);
+        changes = true;
+    }
+
+    private static boolean twoLevel(int v) {
+        return v == 0 || v == 255;
+    }
+
+    // 255 - v, which keeps a black and white image black and white
+    void invert() {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = 255 - v;
+        }
+        then(table);
+    }
+
+    // Gray levels below threshold become black and the rest white, kept one bit per pixel
+    void threshold(int threshold) {
+        grayscale();
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = v >= threshold ? 255 : 0;
+        }
+        then(table);
+        toBinary = true;
+    }
+
+    private static void compose(int[] table, int[] next) {
+        for (int v = 0; v < 256; v++) {
+            table[v] = next[table[v]];
+        }
+    }
+
+    // Histogram of the raster once the operation is applied, pushed through the gray table
+    // from the histogram of the raster, or null when the channel tables make it depend on
+    // more than the gray levels
+    int[] histogram(PixelRaster raster) {
+        if (!toGray || (raster.mode == PixelRaster.RGB && !channelIdentity))
+            return null;
+        int[] source = raster.luminanceHistogram();
+        int[] histogram = new int[256];
+        for (int v = 0; v < 256; v++) {
+            histogram[gray[v]] += source[v];
+        }
+        return histogram;
+    }
+
+    // Rewrite the pixels of raster in one pass
+    void apply(PixelRaster raster) {
+        if (!changes)
+            return;
+        int width = raster.width, height = raster.height, length = width * height;
+        if (raster.mode == PixelRaster.BINARY && toBinary) {
+            // black and white pixels only go to black or white, whole words at a time
+            long whiteStays = gray[255] == 255 ? -1L : 0, blackTurns = gray[0] == 255 ? -1L : 0;
+            long last = raster.lastWordMask();
+            long[] bits = new long[raster.bits.length];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = (raster.bits[i] & whiteStays) | (~raster.bits[i] & blackTurns);
+                if (i % raster.words == raster.words - 1)
+                    bits[i] &= last;
+            }
+            raster.bits = bits;
+            return;
+        }
+        int[] pixels = raster.pixels;
+        if (raster.mode == PixelRaster.RGB && !toGray) {
+            int[] rgb = new int[length];
+            for (int i = 0; i < length; i++) {
+                int color = pixels[i];
+                rgb[i] = (channel[0][(color >> 16) & 0xff] << 16) | (channel[1][(color >> 8) & 0xff] << 8)
+                        | channel[2][color & 0xff];
+            }
+            raster.pixels = rgb;
+            return;
+        }
+        // a gray or binary raster reads its gray levels, and RGB with the channels left as they
+        // are looks the gray table up by their sum
+        int[] plane = raster.mode == PixelRaster.RGB ? null : raster.grayPlane();
+        int[] bySum = new int[766];
+        for (int sum = 0; sum < bySum.length; sum++) {
+            bySum[sum] = gray[sum / 3];
+        }
+        int words = PixelRaster.wordsPerRow(width);
+        long[] bits = toBinary ? new long[words * height] : null;
+        byte[] values = toBinary ? null : new byte[length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v;
+                if (plane != null) {
+                    v = gray[plane[y * width + x]];
+                } else {
+                    int color = pixels[y * width + x];
+                    int r = (color >> 16) & 0xff, g = (color >> 8) & 0xff, b = color & 0xff;
+                    v = channelIdentity ? bySum[r + g + b] : gray[(channel[0][r] + channel[1][g] + channel[2][b]) / 3];
+                }
+                if (!toBinary)
+                    values[y * width + x] = (byte) v;
+                else if (v == 255)
+                    bits[y * words + (x >> 6)] |= 1L << x;
+            }
+        }
+        if (toBinary) {
+            raster.bits = bits;
+            raster.words = words;
+            raster.gray = null;
+            raster.mode = PixelRaster.BINARY;
+        } else {
+            raster.gray = values;
+            raster.bits = null;
+            raster.mode = PixelRaster.GRAY;
+        }
+        raster.pixels = null;
+    }
+}
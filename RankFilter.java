@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+// Sliding window histograms for order statistics, after Perreault and Hebert's constant
+// time median filter
+// Every column keeps the histogram of its pixels in the rows of the window, and the window
+// histogram is the sum of its column histograms. Moving right adds the column that enters
+// and subtracts the one that leaves, moving down updates every column by one pixel in and
+// one out, so the cost per pixel does not grow with the window size.
+// Histograms have 16 coarse bins of 16 gray levels on top of the 256 fine bins. The window
+// keeps its coarse counts and sums current and only brings the fine bins of a coarse bin up
+// to date when a query reaches into it.
+class RankFilter {
+    interface Statistic {
+        // the output value for the window, queried through valueAtRank and sumOfRanks, may
+        // be called from several bands at once
+        int apply(RankFilter window);
+    }
+
+    private final int[] src;
+    private final int width, height, radius;
+    private final boolean zeroPadding;
+
+    // per column, fine counts, coarse counts and coarse sums of the gray levels
+    private final int[] columnFine, columnCoarse, columnSum;
+    // the window
+    private final int[] fine = new int[256];
+    private final int[] coarse = new int[16];
+    private final long[] coarseSum = new long[16];
+    // centre x the fine bins of every coarse bin were last brought up to date for
+    private final int[] fineAt = new int[16];
+    private int x, count, padding;
+
+    private RankFilter(int[] src, int width, int height, int size, boolean zeroPadding) {
+        this.src = src;
+        this.width = width;
+        this.height = height;
+        this.radius = size / 2;
+        this.zeroPadding = zeroPadding;
+        columnFine = new int[width * 256];
+        columnCoarse = new int[width * 16];
+        columnSum = new int[width * 16];
+    }
+
+    // Apply statistic over the size x size window around every pixel of a plane
+    // The window is clipped to the plane, or with zeroPadding the pixels outside of the
+    // plane count as zeros so every window holds size * size values
+    public static int[] filter(int[] src, int width, int height, int size, boolean zeroPadding,
+            Statistic statistic) {
+        int[] dst = new int[width * height];
+        // every band slides its own window histograms down its rows
+        TileExecutor.rows(height, size / 2, (from, to) ->
+                new RankFilter(src, width, height, size, zeroPadding).run(statistic, dst, from, to));
+        return dst;
+    }
+
+    private void run(Statistic statistic, int[] dst, int from, int to) {
+        int size = 2 * radius + 1;
+        for (int i = Math.max(from - radius, 0); i < Math.min(from + radius, height); i++) {
+            addRow(i, 1);
+        }
+        for (int y = from; y < to; y++) {
+            // rows y - radius .. y + radius
+            if (y + radius < height)
+                addRow(y + radius, 1);
+            if (y > from && y - radius - 1 >= 0)
+                addRow(y - radius - 1, -1);
+            int rows = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+
+            Arrays.fill(coarse, 0);
+            Arrays.fill(coarseSum, 0);
+            Arrays.fill(fineAt, Integer.MIN_VALUE);
+            for (int c = 0; c < Math.min(radius, width); c++) {
+                addColumn(c, 1);
+            }
+            for (x = 0; x < width; x++) {
+                if (x + radius < width)
+                    addColumn(x + radius, 1);
+                if (x - radius - 1 >= 0)
+                    addColumn(x - radius - 1, -1);
+                int columns = Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1;
+                count = rows * columns;
+                padding = zeroPadding ? size * size - count : 0;
+                dst[y * width + x] = statistic.apply(this);
+            }
+        }
+    }
+
+    private void addRow(int row, int sign) {
+        for (int c = 0; c < width; c++) {
+            int v = src[row * width + c];
+            columnFine[c * 256 + v] += sign;
+            columnCoarse[c * 16 + (v >> 4)] += sign;
+            columnSum[c * 16 + (v >> 4)] += sign * v;
+        }
+    }
+
+    private void addColumn(int c, int sign) {
+        for (int b = 0; b < 16; b++) {
+            coarse[b] += sign * columnCoarse[c * 16 + b];
+            coarseSum[b] += sign * columnSum[c * 16 + b];
+        }
+    }
+
+    // bring the fine bins of coarse bin b from the window at fineAt[b] to the one at x
+    private void refresh(int b) {
+        int from = fineAt[b];
+        if (from == x)
+            return;
+        int lo = Math.max(x - radius, 0), hi = Math.min(x + radius, width - 1);
+        int oldLo = from == Integer.MIN_VALUE ? 0 : Math.max(from - radius, 0);
+        int oldHi = from == Integer.MIN_VALUE ? -1 : Math.min(from + radius, width - 1);
+        if (oldHi < lo) {
+            // nothing to reuse
+            Arrays.fill(fine, b * 16, b * 16 + 16, 0);
+            for (int c = lo; c <= hi; c++) {
+                addFine(c, b, 1);
+            }
+        } else {
+            for (int c = oldLo; c < lo; c++) {
+                addFine(c, b, -1);
+            }
+            for (int c = oldHi + 1; c <= hi; c++) {
+                addFine(c, b, 1);
+            }
+        }
+        fineAt[b] = x;
+    }
+
+    private void addFine(int c, int b, int sign) {
+        int base = c * 256 + b * 16;
+        for (int v = 0; v < 16; v++) {
+            fine[b * 16 + v] += sign * columnFine[base + v];
+        }
+    }
+
+    // number of values in the window, padding zeros included
+    public int count() {
+        return count + padding;
+    }
+
+    // the value with the given rank, 0 is the smallest
+    public int valueAtRank(int rank) {
+        if (rank < padding)
+            return 0;
+        rank -= padding;
+        int below = 0, b = 0;
+        while (below + coarse[b] <= rank) {
+            below += coarse[b];
+            b++;
+        }
+        refresh(b);
+        int v = b * 16;
+        while (below + fine[v] <= rank) {
+            below += fine[v];
+            v++;
+        }
+        return v;
+    }
+
+    // sum of the values with ranks from (inclusive) to to (exclusive)
+    public long sumOfRanks(int from, int to) {
+        // padding zeros take the lowest ranks and add nothing
+        return smallest(Math.max(to - padding, 0)) - smallest(Math.max(from - padding, 0));
+    }
+
+    // sum of the k smallest values of the plane pixels in the window
+    private long smallest(int k) {
+        long sum = 0;
+        int taken = 0, b = 0;
+        while (b < 16 && taken + coarse[b] <= k) {
+            taken += coarse[b];
+            sum += coarseSum[b];
+            b++;
+        }
+        if (taken == k)
+            return sum;
+        refresh(b);
+        for (int v = b * 16; taken < k; v++) {
+            int n = Math.min(fine[v], k - taken);
+            taken += n;
+            sum += (long) n * v;
+        }
+        return sum;
+    }
+}
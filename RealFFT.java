@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// FFT of n real values keeping only the non-redundant half X[0..n/2] of the spectrum,
+// the rest is given by X[n - k] = conj(X[k])
+// Even sizes pack the even and odd samples into one complex transform of size n/2,
+// odd sizes fall back to a full complex transform
+class RealFFT {
+    private static final ConcurrentHashMap<Integer, RealFFT> plans = new ConcurrentHashMap<>();
+
+    public final int n;
+    private final FFT plan;
+    // exp(-2 pi i k / n) for k = 0..n/2
+    private final double[] cos, sin;
+
+    private RealFFT(int n) {
+        this.n = n;
+        plan = FFT.forSize(n % 2 == 0 ? n / 2 : n);
+        cos = new double[n / 2 + 1];
+        sin = new double[n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            double kth = -2 * k * Math.PI / n;
+            cos[k] = Math.cos(kth);
+            sin[k] = Math.sin(kth);
+        }
+    }
+
+    public static RealFFT forSize(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("FFT size must be positive, got " + n);
+        return plans.computeIfAbsent(n, RealFFT::new);
+    }
+
+    // number of complex values in the half spectrum
+    public int spectrumSize() {
+        return n / 2 + 1;
+    }
+
+    // scratch for one worker, the plan scratch and for odd sizes a full complex buffer
+    public double[][] newScratch() {
+        if (n % 2 == 0)
+            return new double[][] { new double[plan.scratchSize()] };
+        return new double[][] { new double[plan.scratchSize()], new double[n], new double[n] };
+    }
+
+    // x[xOffset..xOffset + n) into re, im[offset..offset + n/2]
+    public void forward(double[] x, int xOffset, double[] re, double[] im, int offset, double[][] scratch) {
+        if (n % 2 != 0) {
+            double[] wr = scratch[1], wi = scratch[2];
+            System.arraycopy(x, xOffset, wr, 0, n);
+            Arrays.fill(wi, 0);
+            plan.transform(wr, wi, 0, false, scratch[0]);
+            System.arraycopy(wr, 0, re, offset, n / 2 + 1);
+            System.arraycopy(wi, 0, im, offset, n / 2 + 1);
+            return;
+        }
+        int m = n / 2;
+        // z[k] = x[2k] + i x[2k + 1] transformed in the output rows
+        for (int k = 0; k < m; k++) {
+            re[offset + k] = x[xOffset + 2 * k];
+            im[offset + k] = x[xOffset + 2 * k + 1];
+        }
+        plan.transform(re, im, offset, false, scratch[0]);
+        // the even and odd sample spectra are E = (Z[k] + conj(Z[m - k])) / 2 and
+        // O = (Z[k] - conj(Z[m - k])) / 2i, then X[k] = E + w^k O, X[m - k] follows by symmetry
+        double e0 = re[offset], o0 = im[offset];
+        re[offset] = e0 + o0;
+        im[offset] = 0;
+        re[offset + m] = e0 - o0;
+        im[offset + m] = 0;
+        for (int k = 1, j = m - 1; k <= j; k++, j--) {
+            double zkr = re[offset + k], zki = im[offset + k];
+            double zjr = re[offset + j], zji = im[offset + j];
+            double er = (zkr + zjr) / 2, ei = (zki - zji) / 2;
+            double or = (zki + zji) / 2, oi = -(zkr - zjr) / 2;
+            // w^k O[k]
+            double tr = cos[k] * or - sin[k] * oi;
+            double ti = cos[k] * oi + sin[k] * or;
+            re[offset + k] = er + tr;
+            im[offset + k] = ei + ti;
+            // E[j] = conj(E[k]), O[j] = conj(O[k])
+            double ur = cos[j] * or + sin[j] * oi;
+            double ui = sin[j] * or - cos[j] * oi;
+            re[offset + j] = er + ur;
+            im[offset + j] = -ei + ui;
+        }
+    }
+
+    // re, im[offset..offset + n/2] back into n real values at x[xOffset..], scaled by 1 / n
+    // the spectrum values are overwritten
+    public void inverse(double[] re, double[] im, int offset, double[] x, int xOffset, double[][] scratch) {
+        if (n % 2 != 0) {
+            double[] wr = scratch[1], wi = scratch[2];
+            wr[0] = re[offset];
+            wi[0] = im[offset];
+            for (int k = 1; k <= n / 2; k++) {
+                wr[k] = wr[n - k] = re[offset + k];
+                wi[k] = im[offset + k];
+                wi[n - k] = -im[offset + k];
+            }
+            plan.transform(wr, wi, 0, true, scratch[0]);
+            System.arraycopy(wr, 0, x, xOffset, n);
+            return;
+        }
+        int m = n / 2;
+        // E = (X[k] + conj(X[m - k])) / 2, O = (X[k] - conj(X[m - k])) w^-k / 2, Z = E + i O
+        double x0r = re[offset], x0i = im[offset];
+        double xmr = re[offset + m], xmi = im[offset + m];
+        double e0r = (x0r + xmr) / 2, e0i = (x0i - xmi) / 2;
+        double o0r = (x0r - xmr) / 2, o0i = (x0i + xmi) / 2;
+        re[offset] = e0r - o0i;
+        im[offset] = e0i + o0r;
+        for (int k = 1, j = m - 1; k <= j; k++, j--) {
+            double xkr = re[offset + k], xki = im[offset + k];
+            double xjr = re[offset + j], xji = im[offset + j];
+            double ekr = (xkr + xjr) / 2, eki = (xki - xji) / 2;
+            double dkr = (xkr - xjr) / 2, dki = (xki + xji) / 2;
+            // multiply by w^-k, the conjugate twiddle
+            double okr = cos[k] * dkr + sin[k] * dki;
+            double oki = cos[k] * dki - sin[k] * dkr;
+            // E[j] = conj(E[k]), and X[j] - conj(X[k]) = -conj(2 dk)
+            double ejr = ekr, eji = -eki;
+            double djr = -dkr, dji = dki;
+            double ojr = cos[j] * djr + sin[j] * dji;
+            double oji = cos[j] * dji - sin[j] * djr;
+            re[offset + k] = ekr - oki;
+            im[offset + k] = eki + okr;
+            re[offset + j] = ejr - oji;
+            im[offset + j] = eji + ojr;
+        }
+        plan.transform(re, im, offset, true, scratch[0]);
+        for (int k = 0; k < m; k++) {
+            x[xOffset + 2 * k] = re[offset + k];
+            x[xOffset + 2 * k + 1] = im[offset + k];
+        }
+    }
+}
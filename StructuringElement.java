@@ -0,0 +1,20 @@
+import java.util.ArrayList;
+
+class StructuringElement {
+    public int[][] elements;
+    public int width, height;
+    public Point origin;
+    public ArrayList<Point> ignoreElements;
+
+    public StructuringElement(int width, int height, Point origin) {
+        this.width = width;
+        this.height = height;
+        if (origin.x < 0 || origin.x >= width || origin.y < 0 || origin.y >= height) {
+            this.origin = new Point();
+        } else {
+            this.origin = new Point(origin);
+        }
+        ignoreElements = new ArrayList<>();
+        elements = new int[width][height];
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Runs a filter over the rows of its output as bands on a ForkJoinPool
+// Every band reads what it needs from the shared source, its halo rows above and below
+// included, and writes only its own rows of the shared output, so bands never wait on each
+// other and the output does not depend on how the rows were split. A band is at least a few
+// halos tall, which keeps the rows read twice a small part of the work.
+class TileExecutor {
+    interface Band {
+        // compute the output rows from (inclusive) to to (exclusive)
+        void run(int from, int to);
+    }
+
+    // no band is split below this many rows
+    private static final int MIN_ROWS = 16;
+    // volatile so a change is seen by the next call from any thread
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile boolean sequential = false;
+
+    public static void setPool(ForkJoinPool pool) {
+        TileExecutor.pool = pool;
+    }
+
+    // run every band on the calling thread, top to bottom
+    public static void setSequential(boolean sequential) {
+        TileExecutor.sequential = sequential;
+    }
+
+    public static boolean isSequential() {
+        return sequential;
+    }
+
+    // Split rows 0 .. height - 1 into bands for a filter that reads halo rows on each side
+    public static void rows(int height, int halo, Band band) {
+        ForkJoinPool pool = TileExecutor.pool;
+        int minRows = Math.max(MIN_ROWS, 4 * halo);
+        int bands = Math.min(pool.getParallelism() * 4, height / minRows);
+        if (sequential || bands <= 1) {
+            band.run(0, height);
+            return;
+        }
+        int[] bounds = new int[bands + 1];
+        for (int i = 0; i <= bands; i++) {
+            bounds[i] = (int) ((long) height * i / bands);
+        }
+        pool.invoke(new Split(band, bounds, 0, bands));
+    }
+
+    // bands first .. last - 1, halved until one is left
+    private static class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Band band;
+        private final int[] bounds;
+        private final int first, last;
+
+        Split(Band band, int[] bounds, int first, int last) {
+            this.band = band;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                band.run(bounds[first], bounds[last]);
+                return;
+            }
+            int middle = (first + last) / 2;
+            invokeAll(new Split(band, bounds, first, middle), new Split(band, bounds, middle, last));
+        }
+    }
+}
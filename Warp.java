@@ -0,0 +1,28 @@
+// Inverse mapping of a raster through a homography
+// Every output pixel (x, y) samples the source at invH * (x, y, 1). The mapping is compiled
+// once into a CompiledWarp, stepping the homogeneous coordinates along each row instead of
+// multiplying by the matrix at every pixel, and kept in a cache so the same homography
+// applied to the next image of the same size is a single gather pass.
+class Warp {
+    static final int NEAREST = 0, BILINEAR = 1, BICUBIC = 2;
+
+    // compiled warps of the most recent homographies, up to 128 MB of tables
+    static final WarpCache cache = new WarpCache(128L << 20);
+
+    // Warp src into an outWidth x outHeight raster, invH maps output pixels to source pixels
+    // Output pixels whose nearest source pixel is outside of the source are black. Bilinear
+    // and bicubic read the edge pixels again past the border.
+    static PixelRaster apply(PixelRaster src, double[] invH, int outWidth, int outHeight, int interpolation) {
+        return cache.get(invH, src.width, src.height, outWidth, outHeight, interpolation).apply(src);
+    }
+
+    // Keys cubic kernel with a = -0.5
+    static double cubic(double t) {
+        t = Math.abs(t);
+        if (t < 1)
+            return (1.5 * t - 2.5) * t * t + 1;
+        if (t < 2)
+            return ((-0.5 * t + 2.5) * t - 4) * t + 2;
+        return 0;
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// The most recently used compiled warps, least recently used evicted first
+// A warp is looked up by its source and output sizes, its interpolation and its inverse
+// homography quantized to steps that move no output pixel by more than a thousandth of a
+// pixel, so the same camera pose solved again from slightly different corners still hits.
+// The cache is bounded by the bytes of the kept tables. A missing warp is built outside of
+// the lock, and a lookup of a warp that is being built waits for that build only.
+class WarpCache {
+    private final LinkedHashMap<Key, Entry> warps = new LinkedHashMap<>(16, 0.75f, true);
+    private long capacity, bytes;
+    private long hits, misses;
+
+    // capacity in bytes of the kept tables
+    WarpCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // The compiled warp of invH, built and kept when it is not cached
+    public CompiledWarp get(double[] invH, int srcWidth, int srcHeight, int outWidth, int outHeight,
+            int interpolation) {
+        Key key = new Key(invH, srcWidth, srcHeight, outWidth, outHeight, interpolation);
+        Entry entry;
+        boolean build = false;
+        synchronized (this) {
+            entry = warps.get(key);
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+                entry = new Entry(new FutureTask<>(
+                        () -> new CompiledWarp(invH, srcWidth, srcHeight, outWidth, outHeight, interpolation)));
+                // kept at no size while it is built, so lookups of the same warp wait for it
+                warps.put(key, entry);
+                build = true;
+            }
+        }
+        if (build) {
+            entry.task.run();
+            CompiledWarp warp = result(entry, key);
+            synchronized (this) {
+                if (warps.get(key) == entry) {
+                    if (warp.bytes() > capacity) {
+                        warps.remove(key);
+                    } else {
+                        entry.bytes = warp.bytes();
+                        bytes += entry.bytes;
+                        evict();
+                    }
+                }
+            }
+            return warp;
+        }
+        return result(entry, key);
+    }
+
+    // the built warp of entry, a failed build is dropped from the cache
+    private CompiledWarp result(Entry entry, Key key) {
+        try {
+            return entry.task.get();
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if (warps.get(key) == entry)
+                    warps.remove(key);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // least recently used first until the kept tables fit
+    private void evict() {
+        Iterator<Entry> eldest = warps.values().iterator();
+        while (bytes > capacity && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        if (capacity < 0) {
+            System.out.println("INVALID CAPACITY!");
+            return;
+        }
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized void clear() {
+        warps.clear();
+        bytes = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized int size() {
+        return warps.size();
+    }
+
+    // bytes of the kept tables
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // share of the lookups that found their warp, 0 before the first one
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Warp cache: %d hits, %d misses, %.1f%% hit rate, %d warps in %d of %d bytes", hits,
+                misses, 100 * hitRate(), warps.size(), bytes, capacity);
+    }
+
+    private static class Entry {
+        final FutureTask<CompiledWarp> task;
+        // size of the table once built
+        long bytes;
+
+        Entry(FutureTask<CompiledWarp> task) {
+            this.task = task;
+        }
+    }
+
+    private static class Key {
+        private final long[] values;
+
+        Key(double[] invH, int srcWidth, int srcHeight, int outWidth, int outHeight, int interpolation) {
+            // scaled so invH[8] is 1, then a step of the translation moves a pixel by 1e-3,
+            // a step of the linear part by at most that over the output and a step of the
+            // perspective part by at most that over the output and the source
+            double scale = invH[8] != 0 ? invH[8] : 1;
+            double out = Math.max(outWidth, outHeight), src = Math.max(srcWidth, srcHeight);
+            double[] step = { 1e-3 / out, 1e-3 / out, 1e-3, 1e-3 / out, 1e-3 / out, 1e-3, 1e-3 / (out * src),
+                    1e-3 / (out * src) };
+            values = new long[13];
+            for (int k = 0; k < 8; k++) {
+                values[k] = Math.round(invH[k] / scale / step[k]);
+            }
+            values[8] = srcWidth;
+            values[9] = srcHeight;
+            values[10] = outWidth;
+            values[11] = outHeight;
+            values[12] = interpolation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+}